@@ -0,0 +1,89 @@
+package org.keeber.simpleio;
+
+/**
+ * The totals of a tree copy (see {@link File.Operations#copyTreeTo(File, File.GrabFilter, File.MoveFilter, File.CopyOptions)})
+ * or a {@link Mirror} sync.
+ */
+public final class CopyReport {
+  private final int files;
+  private final int skipped;
+  private final int directories;
+  private final long bytes;
+  private final long elapsed;
+  private final int deleted;
+
+  CopyReport(int files, int skipped, int directories, long bytes, long elapsed) {
+    this(files, skipped, directories, bytes, elapsed, 0);
+  }
+
+  CopyReport(int files, int skipped, int directories, long bytes, long elapsed, int deleted) {
+    this.files = files;
+    this.skipped = skipped;
+    this.directories = directories;
+    this.bytes = bytes;
+    this.elapsed = elapsed;
+    this.deleted = deleted;
+  }
+
+  /**
+   *
+   * @return the number of files copied.
+   */
+  public int getFiles() {
+    return files;
+  }
+
+  /**
+   *
+   * @return the number of files skipped because the target was unchanged.
+   */
+  public int getSkipped() {
+    return skipped;
+  }
+
+  /**
+   *
+   * @return the number of directories created (or already present) in the target.
+   */
+  public int getDirectories() {
+    return directories;
+  }
+
+  /**
+   *
+   * @return the number of target files deleted because their source was removed.
+   */
+  public int getDeleted() {
+    return deleted;
+  }
+
+  /**
+   *
+   * @return the number of bytes copied.
+   */
+  public long getBytes() {
+    return bytes;
+  }
+
+  /**
+   *
+   * @return the time taken in milliseconds.
+   */
+  public long getElapsed() {
+    return elapsed;
+  }
+
+  /**
+   *
+   * @return bytes copied per second.
+   */
+  public double getThroughput() {
+    return (elapsed == 0) ? 0 : bytes * 1000d / elapsed;
+  }
+
+  @Override
+  public String toString() {
+    return "CopyReport [files=" + files + ", skipped=" + skipped + ", deleted=" + deleted + ", directories=" + directories + ", bytes=" + bytes + ", elapsed=" + elapsed + "ms, throughput=" + (long) getThroughput() + "B/s]";
+  }
+
+}
@@ -1,16 +1,33 @@
 package org.keeber.simpleio;
 
-import java.io.ByteArrayInputStream;
+import java.io.Closeable;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.io.UncheckedIOException;
 import java.net.URI;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.SeekableByteChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.Comparator;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.PriorityQueue;
 import java.util.ServiceLoader;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 import org.keeber.simpleio.plugin.FilePlugin;
 
@@ -83,6 +100,20 @@ public abstract class File implements Comparable<File> {
     in.stance.addPlugin(plugin);
   }
 
+  /**
+   * <p>
+   * Set the executor used by the {@link Async} operations.
+   * 
+   * <p>
+   * The default runs each operation on a virtual thread when the JDK supports them (and on a fixed
+   * pool of daemon threads otherwise).
+   * 
+   * @param executor
+   */
+  public static void setExecutor(Executor executor) {
+    Tasks.setExecutor(executor);
+  }
+
   private static class in {
     private static Core stance = new Core();
   }
@@ -110,6 +141,10 @@ public abstract class File implements Comparable<File> {
       plugins.put(plugin.getScheme(), plugin);
     }
 
+    private Plugin getPlugin(String scheme) {
+      return plugins.get(scheme == null ? FilePlugin.FILE_SCHEME : scheme);
+    }
+
     public File resolve(URI uri) throws IOException {
       if (uri == null) {
         throw new IOException("NULL URI (not allowed).");
@@ -151,6 +186,143 @@ public abstract class File implements Comparable<File> {
      */
     public abstract String getScheme();
 
+    private int parallelism = 1;
+    private ForkJoinPool walkers;
+    // Shared by every walk on the scheme (so concurrent lists share the parallelism).
+    private Semaphore listings;
+    private int bufferSize = 0;
+
+    /**
+     * The buffer size used when streaming content to or from this scheme.
+     * 
+     * @param bufferSize
+     * @return this plugin.
+     */
+    public Plugin setBufferSize(int bufferSize) {
+      this.bufferSize = bufferSize;
+      return this;
+    }
+
+    public int getBufferSize() {
+      return bufferSize > 0 ? bufferSize : getDefaultBufferSize();
+    }
+
+    private int readAhead = 64 * 1024;
+
+    /**
+     * The number of bytes fetched by each read of a random access channel on this scheme (default
+     * 64k) - small reads near each other are then served without another request.
+     * 
+     * @param readAhead (0 to disable)
+     * @return this plugin.
+     */
+    public Plugin setReadAhead(int readAhead) {
+      this.readAhead = Math.max(0, readAhead);
+      return this;
+    }
+
+    public int getReadAhead() {
+      return readAhead;
+    }
+
+    /**
+     * The buffer size suited to this scheme when none has been set (64k).
+     * 
+     * @return
+     */
+    protected int getDefaultBufferSize() {
+      return 64 * 1024;
+    }
+
+    /**
+     * <p>
+     * The number of directories listed concurrently by a recursive list operation on this scheme
+     * (the default of 1 lists sequentially).
+     * 
+     * <p>
+     * Keep this low for remote schemes so servers are not overloaded. When it is greater than one
+     * the Grab and Move filters are called from several threads at once.
+     * 
+     * <p>
+     * Walks already running finish on the pool (and limit) they started with.
+     * 
+     * @param parallelism
+     * @return this plugin.
+     */
+    public Plugin setParallelism(int parallelism) {
+      synchronized (this) {
+        this.parallelism = Math.max(1, parallelism);
+        // Not shut down under running walks - its idle threads end by themselves.
+        walkers = null;
+        listings = null;
+      }
+      return this;
+    }
+
+    public int getParallelism() {
+      return parallelism;
+    }
+
+    private int maxConcurrency = 0;
+    private final Map<String, Tasks.Gate> gates = new HashMap<String, Tasks.Gate>();
+
+    /**
+     * The maximum number of asynchronous operations (see {@link File#async()}) running against each
+     * host of this scheme at once - the rest wait their turn.
+     * 
+     * @param maxConcurrency
+     * @return this plugin.
+     */
+    public Plugin setMaxConcurrency(int maxConcurrency) {
+      synchronized (gates) {
+        this.maxConcurrency = Math.max(1, maxConcurrency);
+        gates.clear();
+      }
+      return this;
+    }
+
+    public int getMaxConcurrency() {
+      return maxConcurrency > 0 ? maxConcurrency : getDefaultConcurrency();
+    }
+
+    /**
+     * The concurrency suited to this scheme when none has been set (16) - plugins with connection
+     * pools should match their pool size.
+     * 
+     * @return
+     */
+    protected int getDefaultConcurrency() {
+      return 16;
+    }
+
+    Tasks.Gate getGate(String host) {
+      synchronized (gates) {
+        Tasks.Gate gate = gates.get(host);
+        if (gate == null) {
+          gates.put(host, gate = new Tasks.Gate(getMaxConcurrency()));
+        }
+        return gate;
+      }
+    }
+
+    /**
+     * Walk on this scheme's pool - at most parallelism directories are listed at once across every
+     * walk on the scheme.
+     */
+    private List<File> walk(File root, GrabFilter grab, MoveFilter move) throws IOException {
+      ForkJoinPool pool;
+      Semaphore permits;
+      synchronized (this) {
+        if (walkers == null) {
+          walkers = new ForkJoinPool(parallelism);
+          listings = new Semaphore(parallelism);
+        }
+        pool = walkers;
+        permits = listings;
+      }
+      return Walker.walk(root, grab, move, pool, permits);
+    }
+
     /*
      * General utility methods to encourage consistency in plugins.
      */
@@ -290,7 +462,7 @@ public abstract class File implements Comparable<File> {
      * A GRAB filter that picks up visible files.
      */
     public static GrabFilter VISIBLE_FILES = (File f) -> {
-      return f.isFile() && f.isVisible();
+      return f.getAttributes().isFile() && f.isVisible();
     };
 
     /**
@@ -361,22 +533,247 @@ public abstract class File implements Comparable<File> {
       }
 
       public int compare(File t1, File t2) {
+        return order.getN() * key(t1).compareTo(key(t2));
+      }
+
+      /**
+       * The value compared for the given file (so it can be extracted once per file when sorting).
+       */
+      @SuppressWarnings("unchecked")
+      private Comparable<Object> key(File file) {
+        Comparable<?> key;
         try {
           if (by == By.MODIFIED) {
-            return order.getN() * (new Long(t1.getLastModified()).compareTo(t2.getLastModified()));
+            key = file.getAttributes().getLastModified();
           } else if (by == By.DEPTH) {
-            int len1 = t1.getPath().split("/").length;
-            int len2 = t2.getPath().split("/").length;
-            return order.getN() * ((len1 == len2) ? 0 : (len1 > len2) ? 1 : -1);
+            key = file.getPath().split("/").length;
           } else {
-            return order.getN() * (t1.getName().toLowerCase().compareTo(t2.getName().toLowerCase()));
+            key = file.getName().toLowerCase();
           }
         } catch (IOException ex) {
+          key = (by == By.NAME) ? "" : (by == By.DEPTH) ? (Comparable<?>) 0 : (Comparable<?>) 0L;
+        }
+        return (Comparable<Object>) key;
+      }
+    }
+
+    /**
+     * Lists at least this long are sorted in parallel.
+     */
+    private static final int PARALLEL_SORT = 1 << 13;
+
+    /**
+     * A file with its sort key (for the standard comparators) and the order it was found in.
+     */
+    private static final class Keyed {
+      private final File file;
+      private final Comparable<Object> key;
+      private final long seq;
+
+      private Keyed(File file, Comparator<File> sorter, long seq) {
+        this.file = file;
+        this.key = (sorter instanceof Sorter) ? ((Sorter) sorter).key(file) : null;
+        this.seq = seq;
+      }
+    }
+
+    private static Comparator<Keyed> keyed(Comparator<File> sorter) {
+      if (sorter == null) {
+        // The natural order (as Collections.sort would use).
+        return (k1, k2) -> k1.file.compareTo(k2.file);
+      }
+      if (sorter instanceof Sorter) {
+        int n = ((Sorter) sorter).order.getN();
+        return (k1, k2) -> n * k1.key.compareTo(k2.key);
+      }
+      return (k1, k2) -> sorter.compare(k1.file, k2.file);
+    }
+
+    /**
+     * Sort the list in place (stable, like Collections.sort). Sort keys are extracted once per file
+     * for the standard comparators and large lists are sorted in parallel.
+     */
+    static void sort(List<File> list, Comparator<File> sorter) {
+      if (list.size() < 2) {
+        return;
+      }
+      if (!(sorter instanceof Sorter)) {
+        if (list.size() < PARALLEL_SORT) {
+          Collections.sort(list, sorter);
+        } else {
+          File[] files = list.toArray(new File[list.size()]);
+          Arrays.parallelSort(files, sorter);
+          for (int i = 0; i < files.length; i++) {
+            list.set(i, files[i]);
+          }
         }
-        return 0;
+        return;
+      }
+      Keyed[] keyed = new Keyed[list.size()];
+      for (int i = 0; i < keyed.length; i++) {
+        keyed[i] = new Keyed(list.get(i), sorter, i);
+      }
+      if (keyed.length < PARALLEL_SORT) {
+        Arrays.sort(keyed, keyed(sorter));
+      } else {
+        Arrays.parallelSort(keyed, keyed(sorter));
+      }
+      for (int i = 0; i < keyed.length; i++) {
+        list.set(i, keyed[i].file);
       }
     }
 
+    /**
+     * The first limit files (in sorter order) using a heap that never holds more than limit files.
+     * The result is the same as sorting everything and taking the head of the list (a null sorter is
+     * the natural order, as for {@link #sort(List, Comparator)}).
+     */
+    static List<File> top(Iterator<File> files, Comparator<File> sorter, int limit) {
+      Comparator<Keyed> order = keyed(sorter).thenComparingLong((k) -> k.seq);
+      // Worst kept file at the head.
+      PriorityQueue<Keyed> heap = new PriorityQueue<Keyed>(Math.max(1, Math.min(limit, 1024)), order.reversed());
+      long seq = 0;
+      while (files.hasNext()) {
+        Keyed keyed = new Keyed(files.next(), sorter, seq++);
+        if (heap.size() < limit) {
+          heap.add(keyed);
+        } else if (limit > 0 && order.compare(keyed, heap.peek()) < 0) {
+          heap.poll();
+          heap.add(keyed);
+        }
+      }
+      Keyed[] kept = heap.toArray(new Keyed[heap.size()]);
+      Arrays.sort(kept, order);
+      List<File> list = new ArrayList<File>(kept.length);
+      for (Keyed keyed : kept) {
+        list.add(keyed.file);
+      }
+      return list;
+    }
+
+  }
+
+  /**
+   * Options for {@link Operations#copyTo(File, CopyOptions)}.
+   */
+  public static class CopyOptions {
+    private boolean link = false;
+
+    public boolean isLink() {
+      return link;
+    }
+
+    /**
+     * Hard link the target to the source instead of copying, when both are local files on the same
+     * filesystem (a normal copy is made otherwise). The two files then share their content - writing
+     * to one changes the other.
+     * 
+     * @param link
+     * @return these options.
+     */
+    public CopyOptions setLink(boolean link) {
+      this.link = link;
+      return this;
+    }
+
+    private int segments = 1;
+
+    public int getSegments() {
+      return segments;
+    }
+
+    /**
+     * <p>
+     * Download in this many byte ranges fetched in parallel (over separate connections) - for large
+     * remote files copied to a local file on schemes that support it (FTP and SFTP). Other copies
+     * ignore this.
+     * 
+     * <p>
+     * Segments are at least 8MB, so smaller files use fewer of them. The extra segments run as
+     * asynchronous operations - each waits for a place at the host (see
+     * {@link Plugin#setMaxConcurrency(int)}) and the copy does any that have not started itself.
+     * 
+     * @param segments
+     * @return these options.
+     */
+    public CopyOptions setSegments(int segments) {
+      this.segments = Math.max(1, segments);
+      return this;
+    }
+
+    private boolean skipUnchanged = false;
+
+    public boolean isSkipUnchanged() {
+      return skipUnchanged;
+    }
+
+    /**
+     * <p>
+     * Tree copies skip files when the target already has the same length and modification time (to
+     * the second). Copied files are given the modification time of their source so the next copy
+     * can skip them.
+     * 
+     * <p>
+     * On schemes that can not set a modification time (FTP) only the lengths are compared - so a
+     * change that keeps the length of a file is not copied.
+     * 
+     * @param skipUnchanged
+     * @return these options.
+     */
+    public CopyOptions setSkipUnchanged(boolean skipUnchanged) {
+      this.skipUnchanged = skipUnchanged;
+      return this;
+    }
+
+    private boolean resume = false;
+    private int retries = 3;
+    private long retryDelay = TimeUnit.SECONDS.toMillis(1);
+
+    public boolean isResume() {
+      return resume;
+    }
+
+    /**
+     * <p>
+     * Resumable copy - the copy continues from the length of the existing target (rather than
+     * starting again) and a failed copy is retried from wherever it got to.
+     * 
+     * <p>
+     * An existing target is assumed to be a partial copy of this source (only its length is
+     * checked), so only resume into targets made by a copy of the same file. The copy restarts from
+     * the beginning if the source changes between attempts.
+     * 
+     * @param resume
+     * @return these options.
+     */
+    public CopyOptions setResume(boolean resume) {
+      this.resume = resume;
+      return this;
+    }
+
+    public int getRetries() {
+      return retries;
+    }
+
+    public long getRetryDelay() {
+      return retryDelay;
+    }
+
+    /**
+     * The number of times a resumable copy is retried (default 3) and the delay before the first
+     * retry (default 1 second) - the delay doubles for each retry (up to 30 seconds).
+     * 
+     * @param retries
+     * @param delay
+     * @param unit
+     * @return these options.
+     */
+    public CopyOptions setRetries(int retries, long delay, TimeUnit unit) {
+      this.retries = Math.max(0, retries);
+      this.retryDelay = unit.toMillis(delay);
+      return this;
+    }
+
   }
 
   /**
@@ -384,6 +781,69 @@ public abstract class File implements Comparable<File> {
    */
   public Operations operations = new Operations();
 
+  /**
+   * Asynchronous versions of the common operations on this file.
+   * 
+   * @return
+   */
+  public Async async() {
+    return new Async();
+  }
+
+  /**
+   * <p>
+   * Operations that run on the executor set by {@link File#setExecutor(Executor)} and complete the
+   * returned future.
+   * 
+   * <p>
+   * The number of operations running against a host at once is limited by the plugin (see
+   * {@link Plugin#setMaxConcurrency(int)}), any others wait without holding a thread.
+   */
+  public class Async {
+
+    public CompletableFuture<List<File>> listAsync(GrabFilter grab, MoveFilter move) {
+      return listAsync(grab, move, comparators.DEFAULT);
+    }
+
+    public CompletableFuture<List<File>> listAsync(GrabFilter grab, MoveFilter move, Comparator<File> sorter) {
+      return Tasks.submit(() -> File.this.list(grab, move, sorter), File.this);
+    }
+
+    /**
+     * @return the content of this file.
+     */
+    public CompletableFuture<byte[]> readAsync() {
+      return Tasks.submit(() -> operations.getByteContent(), File.this);
+    }
+
+    public CompletableFuture<File> copyToAsync(File out) {
+      return copyToAsync(out, new CopyOptions());
+    }
+
+    /**
+     * Copy this file (taking a place at both the source and target hosts).
+     * 
+     * @param out
+     * @param options
+     * @return the copied file.
+     */
+    public CompletableFuture<File> copyToAsync(File out, CopyOptions options) {
+      return Tasks.submit(() -> operations.copyTo(out, options), File.this, out);
+    }
+
+    public CompletableFuture<Boolean> deleteAsync() {
+      return Tasks.submit(() -> File.this.delete(), File.this);
+    }
+
+    /**
+     * @return fresh attributes for this file.
+     */
+    public CompletableFuture<FileAttributes> statAsync() {
+      return Tasks.submit(() -> File.this.refresh().getAttributes(), File.this);
+    }
+
+  }
+
   public class Operations {
 
     /**
@@ -393,7 +853,7 @@ public abstract class File implements Comparable<File> {
      * @throws IOException
      */
     public String getStringContent() throws IOException {
-      return Streams.asString(File.this.open(File.READ));
+      return new String(getByteContent());
     }
 
     /**
@@ -403,7 +863,7 @@ public abstract class File implements Comparable<File> {
      * @throws IOException
      */
     public String getStringContent(String encoding) throws IOException {
-      return Streams.asString(File.this.open(File.READ), encoding);
+      return new String(getByteContent(), encoding);
     }
 
     /**
@@ -413,7 +873,10 @@ public abstract class File implements Comparable<File> {
      * @throws IOException
      */
     public byte[] getByteContent() throws IOException {
-      return Streams.asByteArray(File.this.open(File.READ));
+      long length = File.this.length();
+      try (InputStream is = File.this.open(File.READ)) {
+        return Streams.asByteArray(is, length);
+      }
     }
 
     /**
@@ -446,8 +909,10 @@ public abstract class File implements Comparable<File> {
      * @throws IOException
      */
     public File setByteContent(byte[] content) throws IOException {
-      ByteArrayInputStream bos = new ByteArrayInputStream(content);
-      Streams.copy(bos, File.this.open(File.WRITE), true);
+      try (OutputStream os = File.this.open(File.WRITE)) {
+        os.write(content);
+        os.flush();
+      }
       return File.this;
     }
 
@@ -459,10 +924,92 @@ public abstract class File implements Comparable<File> {
      * @throws IOException
      */
     public File copyTo(File out) throws IOException {
-      Streams.copy(File.this.open(File.READ), out.open(File.WRITE), true);
+      return copyTo(out, new CopyOptions());
+    }
+
+    /**
+     * Copy the content of the current file to the provided output file. Plugins copy directly
+     * where they can (eg: a kernel side copy between two local files) - otherwise the content is
+     * streamed.
+     * 
+     * @param out
+     * @param options
+     * @return the copied file.
+     * @throws IOException
+     */
+    public File copyTo(File out, CopyOptions options) throws IOException {
+      if (options.isResume()) {
+        Transfers.resumable(File.this, out, options, Math.max(File.this.getBufferSize(), out.getBufferSize()));
+        return out;
+      }
+      if (options.getSegments() > 1 && File.this.supportsSegments() && out instanceof FilePlugin.SIOFile && !File.this.isDirectory()) {
+        int segments = Transfers.segments(File.this.length(), options.getSegments());
+        if (segments > 1) {
+          Transfers.segmented(File.this, (FilePlugin.SIOFile) out, segments, File.this.getBufferSize());
+          return out;
+        }
+      }
+      if (!File.this.copyDirect(out, options)) {
+        Streams.copy(File.this.open(File.READ), out.open(File.WRITE), true, Math.max(File.this.getBufferSize(), out.getBufferSize()));
+      }
       return out;
     }
 
+    /**
+     * <p>
+     * Copy the files in this directory (selected by the grab and move filters) to the same relative
+     * paths in the target directory.
+     * 
+     * <p>
+     * The directories are created up front and the files are copied in parallel - the copies run as
+     * asynchronous operations so the number at once for each source and target host is limited by
+     * {@link Plugin#setMaxConcurrency(int)}. Every file is attempted, the first failure is then
+     * thrown (with the rest suppressed).
+     * 
+     * @param target
+     * @param grab
+     * @param move
+     * @param options
+     * @return the totals of the copy.
+     * @throws IOException
+     */
+    public CopyReport copyTreeTo(File target, GrabFilter grab, MoveFilter move, CopyOptions options) throws IOException {
+      return Transfers.tree(File.this, target, grab, move, options);
+    }
+
+    /**
+     * Memory map the whole file as read only regions (only local files can be mapped). A single
+     * mapping is limited to 2GB so larger files are returned as consecutive regions.
+     * 
+     * @return the mapped regions in file order.
+     * @throws IOException
+     */
+    public List<MappedByteBuffer> map() throws IOException {
+      return map(MAX_MAPPING);
+    }
+
+    /**
+     * Memory map the whole file as consecutive read only regions of (at most) the given size.
+     * 
+     * @param regionSize
+     * @return the mapped regions in file order.
+     * @throws IOException
+     */
+    public List<MappedByteBuffer> map(int regionSize) throws IOException {
+      if (regionSize <= 0) {
+        throw new IllegalArgumentException("Region size must be positive.");
+      }
+      long length = File.this.length();
+      List<MappedByteBuffer> regions = new ArrayList<>((int) (length / regionSize) + 1);
+      long position = 0;
+      do {
+        long size = Math.min(regionSize, length - position);
+        regions.add(File.this.map(position, size));
+        position += size;
+      } while (position < length);
+      return regions;
+    }
+
     /**
      * Provides and extended dump of a file for testing / debugging.
      * 
@@ -540,14 +1087,29 @@ public abstract class File implements Comparable<File> {
    * Used in the open method.
    */
   public static final Class<InputStream> READ = InputStream.class;
+  /**
+   * Used in the open method - a read only memory mapping of the file (local files up to 2GB, see
+   * {@link Operations#map()} for larger files).
+   */
+  public static final Class<MappedByteBuffer> MAP = MappedByteBuffer.class;
+  /**
+   * Used in the open method - a read only random access channel (each plugin uses its native
+   * ranged reads).
+   */
+  public static final Class<SeekableByteChannel> CHANNEL = SeekableByteChannel.class;
+
+  /**
+   * The largest single mapping.
+   */
+  private static final int MAX_MAPPING = Integer.MAX_VALUE;
 
   /**
    * Provide a stream for either reading from or writing to the file. Callers should be careful to
    * close the stream after use as some streams may be very sensitive to this (like the FTP
    * implementation).
    * 
-   * @param streamType one of File.READ or File.WRITE
-   * @return either an InputStream or OutputStream instance.
+   * @param streamType one of File.READ, File.WRITE, File.MAP or File.CHANNEL
+   * @return either an InputStream, OutputStream, MappedByteBuffer or SeekableByteChannel instance.
    * @throws IOException
    */
   @SuppressWarnings("unchecked")
@@ -561,13 +1123,127 @@ public abstract class File implements Comparable<File> {
     if (streamType.equals(File.WRITE)) {
       return (T) write();
     }
+    if (streamType.equals(File.MAP)) {
+      long length = length();
+      if (length > MAX_MAPPING) {
+        throw new IOException("Cannot map " + getPath() + " as a single region (" + length + " bytes) - use operations.map().");
+      }
+      return (T) map(0, length);
+    }
+    if (streamType.equals(File.CHANNEL)) {
+      return (T) channel();
+    }
     return null;
   };
 
   protected abstract InputStream read() throws IOException;
 
+  /**
+   * Open the file for reading from the given offset. Plugins with ranged reads (like FTP REST)
+   * should override this - the default skips the stream forward.
+   * 
+   * @param offset
+   * @return
+   * @throws IOException
+   */
+  protected InputStream read(long offset) throws IOException {
+    InputStream is = read();
+    long skipped = 0;
+    while (skipped < offset) {
+      long n = is.skip(offset - skipped);
+      if (n <= 0) {
+        if (is.read() == -1) {
+          break;
+        }
+        n = 1;
+      }
+      skipped += n;
+    }
+    return is;
+  }
+
+  /**
+   * @return true if several ranged reads of this file can efficiently run at the same time (each
+   *         over its own connection).
+   */
+  protected boolean supportsSegments() {
+    return false;
+  }
+
+  /**
+   * A file below this directory that is known not to exist yet (its directory has just been listed
+   * or created). The default is {@link #create(String)} - plugins that look a file up as it is
+   * created can skip that here.
+   * 
+   * @param path
+   * @return
+   * @throws IOException
+   */
+  protected File createNew(String path) throws IOException {
+    return create(path);
+  }
+
+  /**
+   * @return false if {@link #setLastModified(long)} does not change the modification time on the
+   *         server (tree copies then compare lengths only - see
+   *         {@link CopyOptions#setSkipUnchanged(boolean)}).
+   */
+  protected boolean supportsLastModified() {
+    return true;
+  }
+
+  /**
+   * Copy this file to the target without streaming through the JVM (when the plugin knows how).
+   * 
+   * @param target
+   * @param options
+   * @return false if the copy should be streamed instead.
+   * @throws IOException
+   */
+  protected boolean copyDirect(File target, CopyOptions options) throws IOException {
+    return false;
+  }
+
   protected abstract OutputStream write() throws IOException;
 
+  /**
+   * A read only random access channel. The default is built on {@link #read(long)} with the
+   * plugin's read-ahead, plugins with native random access should override this.
+   * 
+   * @return
+   * @throws IOException
+   */
+  protected SeekableByteChannel channel() throws IOException {
+    return new StreamChannel(this, length(), getReadAhead());
+  }
+
+  /**
+   * Map a region of the file read only. Only plugins for local files can override this.
+   * 
+   * @param position
+   * @param size (at most 2GB)
+   * @return
+   * @throws IOException
+   */
+  protected MappedByteBuffer map(long position, long size) throws IOException {
+    throw new IOException("Memory mapping is not supported for " + getURI().getScheme());
+  }
+
+  /**
+   * Open the file for writing from the given offset (anything after it is replaced). Plugins that
+   * can continue a file should override this - the default only supports an offset of zero.
+   * 
+   * @param offset
+   * @return
+   * @throws IOException
+   */
+  protected OutputStream write(long offset) throws IOException {
+    if (offset != 0) {
+      throw new IOException("Writing from an offset is not supported for " + getURI().getScheme());
+    }
+    return write();
+  }
+
   /**
    * 
    * @return last modified time in milliseconds.
@@ -599,15 +1275,244 @@ public abstract class File implements Comparable<File> {
 
   public abstract File parent() throws IOException;
 
+  private volatile FileAttributes attributes;
+
+  /**
+   * <p>
+   * The attributes snapshot for this file. Files returned by a list operation carry the attributes
+   * read with the listing - otherwise they are read the first time they are asked for.
+   * 
+   * <p>
+   * The snapshot is not updated when the file changes - call {@link #refresh()} for fresh data.
+   * 
+   * @return the attributes.
+   * @throws IOException
+   */
+  public FileAttributes getAttributes() throws IOException {
+    FileAttributes attributes = this.attributes;
+    if (attributes == null) {
+      this.attributes = attributes = readAttributes();
+    }
+    return attributes;
+  }
+
   /**
+   * Re-reads the attributes snapshot for this file.
+   * 
+   * @return this file.
+   * @throws IOException
+   */
+  public File refresh() throws IOException {
+    this.attributes = readAttributes();
+    return this;
+  }
+
+  /**
+   * Attach attributes read in bulk (by a list operation).
+   * 
+   * @param attributes
+   */
+  protected void setAttributes(FileAttributes attributes) {
+    this.attributes = attributes;
+  }
+
+  /**
+   * Read fresh attributes for this file - plugins that cache attributes should re-read them here.
+   * 
+   * @return
+   * @throws IOException
+   */
+  protected FileAttributes readAttributes() throws IOException {
+    return snapshot();
+  }
+
+  /**
+   * The attributes as currently reported by this file (without re-reading anything the plugin has
+   * cached).
+   * 
+   * @return
+   * @throws IOException
+   */
+  protected FileAttributes snapshot() throws IOException {
+    return new FileAttributes(exists(), isDirectory(), isFile(), length(), getLastModified());
+  }
+
+  /**
+   * <p>
    * List all of the files that pass through the provided filter sorted with the sorter.
    * 
+   * <p>
+   * Directories are walked in parallel when the plugin for this scheme has a parallelism greater
+   * than one (see {@link Plugin#setParallelism(int)}) - the result is the same as a sequential walk.
+   * 
    * @param filter
    * @param sorter
    * @return
    * @throws IOException
    */
-  public abstract List<File> list(GrabFilter grab, MoveFilter move, Comparator<File> sorter) throws IOException;
+  public List<File> list(GrabFilter grab, MoveFilter move, Comparator<File> sorter) throws IOException {
+    Plugin plugin = in.stance.getPlugin(getURI().getScheme());
+    List<File> list;
+    if (plugin != null && plugin.getParallelism() > 1) {
+      list = plugin.walk(this, grab, move);
+    } else {
+      list = Walker.walk(this, grab, move);
+    }
+    comparators.sort(list, sorter);
+    return list;
+  }
+
+  /**
+   * <p>
+   * List the first limit files that pass through the provided filter (in sorter order).
+   * 
+   * <p>
+   * The directory is walked lazily and only the best limit files are kept (in a bounded heap) - so
+   * "the 50 oldest files" of a huge folder doesn't need the whole folder in memory or sorted.
+   * 
+   * @param grab
+   * @param move
+   * @param sorter null for the natural order (as {@link #list(GrabFilter, MoveFilter, Comparator)}).
+   * @param limit
+   * @return
+   * @throws IOException
+   */
+  public List<File> list(GrabFilter grab, MoveFilter move, Comparator<File> sorter, int limit) throws IOException {
+    try (Stream<File> files = walk(grab, move)) {
+      return comparators.top(files.iterator(), sorter, limit);
+    } catch (UncheckedIOException e) {
+      throw e.getCause();
+    }
+  }
+
+  /**
+   * The plugin for this file's scheme (null if there is none).
+   */
+  Plugin getPlugin() {
+    return in.stance.getPlugin(getURI().getScheme());
+  }
+
+  /**
+   * The buffer size suited to streaming this file (from the plugin for the scheme).
+   * 
+   * @return
+   */
+  protected int getBufferSize() {
+    Plugin plugin = in.stance.getPlugin(getURI().getScheme());
+    return (plugin == null) ? Streams.getBufferSize() : plugin.getBufferSize();
+  }
+
+  /**
+   * The read-ahead for random access channels of this file's scheme.
+   * 
+   * @return
+   */
+  protected int getReadAhead() {
+    Plugin plugin = in.stance.getPlugin(getURI().getScheme());
+    return (plugin == null) ? 0 : plugin.getReadAhead();
+  }
+
+  /**
+   * <p>
+   * The files directly inside this directory (excluding any '.' and '..' entries) - empty when this
+   * is not a readable directory.
+   * 
+   * <p>
+   * Plugins override this - the recursive lists and walks are built on it. A plugin written before
+   * it was added overrides {@link #list(GrabFilter, MoveFilter, Comparator)} instead, and this then
+   * lists a single level with that list (so it can still be walked and copied).
+   * 
+   * @return
+   * @throws IOException
+   */
+  protected List<File> children() throws IOException {
+    if (!LISTS.get(getClass())) {
+      // Neither is overridden - each would only call the other.
+      throw new UnsupportedOperationException(getClass().getName() + " overrides neither children() nor list().");
+    }
+    return list(filters.EVERYTHING, filters.ONLY_THIS_DIRECTORY, null);
+  }
+
+  /**
+   * Whether a class has a list of its own (a plugin written before {@link #children()}).
+   */
+  private static final ClassValue<Boolean> LISTS = new ClassValue<Boolean>() {
+
+    @Override
+    protected Boolean computeValue(Class<?> type) {
+      try {
+        return type.getMethod("list", GrabFilter.class, MoveFilter.class, Comparator.class).getDeclaringClass() != File.class;
+      } catch (NoSuchMethodException e) {
+        return false;
+      }
+    }
+
+  };
+
+  /**
+   * An open listing of a directory - see {@link File#openChildren()}.
+   */
+  public static interface Listing extends Closeable {
+
+    /**
+     * @return the next file in the directory or null when there are no more.
+     * @throws IOException
+     */
+    public File next() throws IOException;
+
+  }
+
+  /**
+   * Open a listing of the files directly inside this directory. Plugins that can read a directory
+   * incrementally should override this - the default lists the whole directory with
+   * {@link #children()}.
+   * 
+   * @return
+   * @throws IOException
+   */
+  protected Listing openChildren() throws IOException {
+    Iterator<File> children = children().iterator();
+    return new Listing() {
+
+      @Override
+      public File next() throws IOException {
+        return children.hasNext() ? children.next() : null;
+      }
+
+      @Override
+      public void close() throws IOException {
+        // Nothing open.
+      }
+    };
+  }
+
+  /**
+   * <p>
+   * Lazily walk the files that pass through the provided filters, in the order they are visited
+   * (no sorting).
+   * 
+   * <p>
+   * Each directory is only read when the stream reaches it, so short-circuiting operations (like
+   * findFirst() or limit()) only cost the directories actually visited. Close the stream (eg: with
+   * try-with-resources) to release any listing that is still open. IOExceptions are thrown as
+   * UncheckedIOExceptions.
+   * 
+   * <pre>
+   * <code>
+   * try (Stream&lt;File&gt; files = folder.walk(File.filters.VISIBLE_FILES, File.filters.ALL_DIRECTORIES)) {
+   *   files.limit(100).forEach(...);
+   * }
+   * </code>
+   * </pre>
+   * 
+   * @param grab
+   * @param move
+   * @return a lazily populated stream.
+   */
+  public Stream<File> walk(GrabFilter grab, MoveFilter move) {
+    Walker.Lazy walker = new Walker.Lazy(this, grab, move);
+    return StreamSupport.stream(Spliterators.spliteratorUnknownSize(walker, Spliterator.ORDERED | Spliterator.NONNULL), false).onClose(walker::close);
+  }
 
   /**
    * List all of the files that pass through the provided filter sorted with the default sorter
@@ -0,0 +1,83 @@
+package org.keeber.simpleio;
+
+import java.util.Date;
+
+/**
+ * <p>
+ * An immutable snapshot of the attributes of a {@link File} - captured in bulk by list operations
+ * (from the directory listing itself) or on first use, and only re-read by {@link File#refresh()}.
+ * 
+ * <p>
+ * Sorting, filtering and hotfolder checks use the snapshot so they run from memory.
+ */
+public final class FileAttributes {
+  private final boolean exists;
+  private final boolean directory;
+  private final boolean file;
+  private final long length;
+  private final long lastModified;
+
+  public FileAttributes(boolean exists, boolean directory, boolean file, long length, long lastModified) {
+    this.exists = exists;
+    this.directory = directory;
+    this.file = file;
+    this.length = length;
+    this.lastModified = lastModified;
+  }
+
+  public boolean exists() {
+    return exists;
+  }
+
+  public boolean isDirectory() {
+    return directory;
+  }
+
+  public boolean isFile() {
+    return file;
+  }
+
+  /**
+   * 
+   * @return length of the file in bytes.
+   */
+  public long length() {
+    return length;
+  }
+
+  /**
+   * 
+   * @return last modified time in milliseconds.
+   */
+  public long getLastModified() {
+    return lastModified;
+  }
+
+  @Override
+  public int hashCode() {
+    final int prime = 31;
+    int result = 1;
+    result = prime * result + (exists ? 1231 : 1237);
+    result = prime * result + (directory ? 1231 : 1237);
+    result = prime * result + (file ? 1231 : 1237);
+    result = prime * result + (int) (length ^ (length >>> 32));
+    result = prime * result + (int) (lastModified ^ (lastModified >>> 32));
+    return result;
+  }
+
+  @Override
+  public boolean equals(Object obj) {
+    if (this == obj)
+      return true;
+    if (!(obj instanceof FileAttributes))
+      return false;
+    FileAttributes other = (FileAttributes) obj;
+    return exists == other.exists && directory == other.directory && file == other.file && length == other.length && lastModified == other.lastModified;
+  }
+
+  @Override
+  public String toString() {
+    return "FileAttributes [exists=" + exists + ", directory=" + directory + ", file=" + file + ", length=" + length + ", lastModified=" + new Date(lastModified) + "]";
+  }
+
+}
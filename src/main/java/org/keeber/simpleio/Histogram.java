@@ -0,0 +1,72 @@
+package org.keeber.simpleio;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * <p>
+ * A lock free histogram of times in milliseconds.
+ *
+ * <p>
+ * Values are counted in power of two buckets (0, 1, 2-3, 4-7 ...) so percentiles are an upper bound
+ * within a factor of two - enough to tell a 50ms listing from a 5 second one.
+ */
+final class Histogram {
+  private static final int BUCKETS = 64;
+
+  private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+  private final AtomicLong count = new AtomicLong();
+  private final AtomicLong sum = new AtomicLong();
+  private final AtomicLong max = new AtomicLong();
+
+  void record(long millis) {
+    long value = Math.max(0, millis);
+    buckets.incrementAndGet(BUCKETS - Long.numberOfLeadingZeros(value));
+    count.incrementAndGet();
+    sum.addAndGet(value);
+    max.accumulateAndGet(value, Math::max);
+  }
+
+  long getCount() {
+    return count.get();
+  }
+
+  long getMax() {
+    return max.get();
+  }
+
+  double getMean() {
+    long n = count.get();
+    return n == 0 ? 0 : (double) sum.get() / n;
+  }
+
+  /**
+   * @param percentile between 0 and 100.
+   * @return the upper bound of the bucket holding the percentile (0 when empty).
+   */
+  long getPercentile(double percentile) {
+    long n = count.get();
+    if (n == 0) {
+      return 0;
+    }
+    long rank = (long) Math.ceil(n * Math.min(100, Math.max(0, percentile)) / 100);
+    long seen = 0;
+    for (int i = 0; i < BUCKETS; i++) {
+      seen += buckets.get(i);
+      if (seen >= rank) {
+        return Math.min(i == 0 ? 0 : (1L << i) - 1, max.get());
+      }
+    }
+    return max.get();
+  }
+
+  void reset() {
+    for (int i = 0; i < BUCKETS; i++) {
+      buckets.set(i, 0);
+    }
+    count.set(0);
+    sum.set(0);
+    max.set(0);
+  }
+
+}
@@ -1,19 +1,36 @@
 package org.keeber.simpleio;
 
+import java.io.Closeable;
 import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
 import java.util.Comparator;
 import java.util.List;
 import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
 import java.util.UUID;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
 import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import org.keeber.simpleio.File.GrabFilter;
 import org.keeber.simpleio.File.MoveFilter;
+import org.keeber.simpleio.plugin.FilePlugin;
 
 public class Hotfolder {
   private String id;
@@ -107,6 +124,281 @@ public class Hotfolder {
     return this;
   }
 
+  private long minInterval = 0;
+  private long maxInterval = 0;
+  private volatile long currentInterval = 0;
+  // The last scan left files (of this node) settling.
+  private volatile boolean busy = false;
+  // When the first file of another node can be stolen.
+  private volatile long stealAt = Long.MAX_VALUE;
+
+  public boolean isAdaptive() {
+    return maxInterval > 0;
+  }
+
+  /**
+   * <p>
+   * Scan at the minimum interval while files are new or settling and back off (doubling up to the
+   * maximum) while scans find nothing - in place of the fixed interval. Null units turn it off.
+   * 
+   * <p>
+   * The interval stays at the minimum until every file has settled, so files settle over the settle
+   * count of minimum intervals.
+   * 
+   * @param min
+   * @param max
+   * @param unit
+   * @return this hotfolder.
+   */
+  public Hotfolder setAdaptive(long min, long max, TimeUnit unit) {
+    this.minInterval = (unit == null) ? 0 : Math.max(1, unit.toMillis(min));
+    this.maxInterval = (unit == null) ? 0 : Math.max(minInterval, unit.toMillis(max));
+    return this;
+  }
+
+  /**
+   * 
+   * @return the milliseconds until the next full scan is due (after the one in progress).
+   */
+  public long getCurrentInterval() {
+    if (watcher != null) {
+      return rescanInterval;
+    }
+    return isAdaptive() ? currentInterval : unit.toMillis(interval);
+  }
+
+  /**
+   * The delay before the next full scan.
+   */
+  private long nextInterval() {
+    long next;
+    if (watcher != null) {
+      // The events do the work - the full scan is only a safety net.
+      next = rescanInterval;
+    } else if (!isAdaptive()) {
+      next = unit.toMillis(interval);
+    } else {
+      long current = busy ? minInterval : Math.min(maxInterval, Math.max(minInterval, currentInterval * 2));
+      if (current != currentInterval) {
+        getLogger().log(Level.FINE, "[Scanning] Next scan in {0}ms.", new Object[] {current});
+      }
+      next = currentInterval = current;
+    }
+    // Scan when a file of another node can be stolen.
+    long steal = stealAt - System.currentTimeMillis();
+    return Math.max(0, Math.min(next, steal));
+  }
+
+  private boolean watching = true;
+  private long watchInterval = 250;
+  private long rescanInterval = TimeUnit.MINUTES.toMillis(5);
+
+  public boolean isWatching() {
+    return watching;
+  }
+
+  /**
+   * <p>
+   * Watch local folders for changes (default true) - remote folders are always polled.
+   * 
+   * <p>
+   * Changes are picked up as they happen and files are then checked every watch interval until
+   * they settle (so the settle count is in watch intervals rather than scan intervals). The full
+   * scan only runs every rescan interval as a safety net (for missed events) - see
+   * {@link #setRescanInterval(long, TimeUnit)}.
+   * 
+   * @param watching
+   * @return this hotfolder.
+   */
+  public Hotfolder setWatching(boolean watching) {
+    this.watching = watching;
+    return this;
+  }
+
+  /**
+   * How often changed files are checked while watching (default 250 milliseconds).
+   * 
+   * @param time
+   * @param unit
+   * @return this hotfolder.
+   */
+  public Hotfolder setWatchInterval(long time, TimeUnit unit) {
+    this.watchInterval = unit.toMillis(time);
+    return this;
+  }
+
+  /**
+   * How often a watched folder is fully scanned anyway (default 5 minutes) - in place of the
+   * interval, which only applies to polled folders.
+   * 
+   * @param time
+   * @param unit
+   * @return this hotfolder.
+   */
+  public Hotfolder setRescanInterval(long time, TimeUnit unit) {
+    this.rescanInterval = Math.max(1, unit.toMillis(time));
+    return this;
+  }
+
+  private File journalDirectory;
+  private Journal journal;
+  // Compaction needs a full scan first (the journal may hold files the trackers have not seen yet).
+  private boolean scanned = false;
+
+  /**
+   * <p>
+   * Keep the tracker state in a local directory (default none) so a restart carries on where it
+   * stopped - settling files keep their progress and files already dispatched are not dispatched
+   * again.
+   * 
+   * <p>
+   * Changes are journaled as they happen (and flushed after each scan) and the journal is compacted
+   * into an index of the processed files every so often. A file dispatched just before a crash may
+   * be dispatched again. Each hotfolder needs its own directory.
+   * 
+   * @param directory a local directory (null for none).
+   * @return this hotfolder.
+   */
+  public Hotfolder setJournal(File directory) {
+    this.journalDirectory = directory;
+    return this;
+  }
+
+  private String node;
+  private String claims;
+  private int partition = 0;
+  private int partitions = 1;
+  private long steal = -1;
+  // The filters in use while running (the claim directory is never scanned).
+  private GrabFilter grabbing;
+  private MoveFilter moving;
+
+  /**
+   * <p>
+   * Claim each settled file before calling the subscriber (default off) so several hotfolders - in
+   * different JVMs - can share a folder and each file is only processed once. The file is renamed into
+   * a directory of this node (&lt;folder&gt;/.claims/&lt;node&gt;/ keeping its relative path) and only
+   * the node whose rename wins calls the subscriber, with the claimed file.
+   * 
+   * <p>
+   * The subscriber should move or delete the claimed file when done - a file it fails on is renamed
+   * back to be offered again. Files left in the claim directory of a node that stopped are not
+   * recovered.
+   * 
+   * @param node a name unique to this node (null for no claims).
+   * @return this hotfolder.
+   */
+  public Hotfolder setClaim(String node) {
+    return setClaim(node, ".claims");
+  }
+
+  /**
+   * Claim each settled file into &lt;folder&gt;/&lt;directory&gt;/&lt;node&gt;/ (see
+   * {@link #setClaim(String)}).
+   * 
+   * @param node a name unique to this node (null for no claims).
+   * @param directory relative to the folder (it is never scanned).
+   * @return this hotfolder.
+   */
+  public Hotfolder setClaim(String node, String directory) {
+    this.node = node;
+    this.claims = Transfers.directory(directory);
+    return this;
+  }
+
+  public String getNode() {
+    return node;
+  }
+
+  /**
+   * <p>
+   * Only offer the files whose relative path hashes to this partition (default all) - the other
+   * nodes sharing the folder take the rest. Use with {@link #setClaim(String)}.
+   * 
+   * <p>
+   * A file of another partition is taken anyway once it has been waiting for the steal delay since
+   * it was first seen (so files are not stranded while a node is down).
+   * 
+   * @param index of this node (from 0).
+   * @param count of nodes.
+   * @param steal delay (negative to never steal).
+   * @param unit
+   * @return this hotfolder.
+   */
+  public Hotfolder setPartition(int index, int count, long steal, TimeUnit unit) {
+    this.partitions = Math.max(1, count);
+    this.partition = Math.floorMod(index, partitions);
+    this.steal = steal < 0 ? -1 : unit.toMillis(steal);
+    return this;
+  }
+
+  /**
+   * @return true if this node should take the settled file.
+   */
+  private boolean owns(File file, long key) {
+    if (partitions == 1 || Math.floorMod(Trackers.hash(Transfers.relative(Transfers.directory(folder.getPath()), file)), partitions) == partition) {
+      return true;
+    }
+    long seen = trackers.seen(key);
+    return steal >= 0 && seen > 0 && System.currentTimeMillis() - seen >= steal;
+  }
+
+  /**
+   * Rename the file into this node's claim directory.
+   * 
+   * @return the claimed file (the file itself without claims) or null if another node claimed it.
+   * @throws IOException if it could not be claimed (and is still there).
+   */
+  private File claim(File file) throws IOException {
+    if (node == null) {
+      return file;
+    }
+    String relative = Transfers.relative(Transfers.directory(folder.getPath()), file);
+    File claimed = folder.create(claims + node + "/" + relative);
+    File parent = claimed.parent();
+    if (!parent.exists()) {
+      parent.mkdirs();
+    }
+    try {
+      if (file.rename(claimed)) {
+        return folder.create(claims + node + "/" + relative);
+      }
+    } catch (IOException e) {
+      if (folder.create(relative).exists()) {
+        throw e;
+      }
+      return null;
+    }
+    if (folder.create(relative).exists()) {
+      throw new IOException("Could not claim " + file.getPath());
+    }
+    return null;
+  }
+
+  /**
+   * Put a claimed file back to be offered again.
+   */
+  private void unclaim(File file, File claimed) {
+    try {
+      if (!claimed.rename(folder.create(Transfers.relative(Transfers.directory(folder.getPath()), file)))) {
+        throw new IOException("Rename failed.");
+      }
+    } catch (IOException e) {
+      getLogger().log(Level.SEVERE, "[Claim] Could not return " + claimed.getPath(), e);
+    }
+  }
+
+  private void filters() {
+    if (node == null) {
+      grabbing = grab;
+      moving = move;
+      return;
+    }
+    String excluded = Transfers.directory(folder.getPath()) + claims;
+    grabbing = (f) -> !Transfers.directory(f.getPath()).startsWith(excluded) && grab.shouldGrab(f);
+    moving = (f, depth) -> !Transfers.directory(f.getPath()).startsWith(excluded) && move.shouldMove(f, depth);
+  }
+
   private transient Logger logger;
 
   public Logger getLogger() {
@@ -154,53 +446,605 @@ public class Hotfolder {
 
   }
 
-  private ScheduledExecutorService scheduler;
+  private Metrics metrics = new Metrics();
+
+  /**
+   * Report what the hotfolder is doing (see {@link HotfolderMetrics} for one that can be read over
+   * JMX).
+   * 
+   * @param metrics
+   * @return this hotfolder.
+   */
+  public Hotfolder setMetrics(Metrics metrics) {
+    this.metrics = (metrics == null ? new Metrics() : metrics).setParent(this);
+    return this;
+  }
+
+  public Metrics getMetrics() {
+    return metrics;
+  }
+
+  /**
+   * <p>
+   * Told about each scan and dispatch - override the methods of interest (the defaults do nothing).
+   * 
+   * <p>
+   * Called on the scan and subscriber threads so implementations must be thread safe (and quick).
+   */
+  public static class Metrics {
+    private Hotfolder parent;
+
+    /**
+     * A full scan finished.
+     * 
+     * @param millis the time taken by the listing and settle checks.
+     * @param listed the number of entries listed.
+     */
+    public void onScan(long millis, int listed) {
+
+    }
+
+    /**
+     * A full scan failed (or the folder could not be found).
+     * 
+     * @param e
+     */
+    public void onScanError(Exception e) {
+
+    }
+
+    /**
+     * The subscriber has been called.
+     * 
+     * @param file
+     * @param waited milliseconds from when the file was first seen to the subscriber being called.
+     * @param elapsed milliseconds the subscriber took.
+     * @param failed true if the subscriber threw (the file will be offered again).
+     */
+    public void onDispatched(File file, long waited, long elapsed, boolean failed) {
+
+    }
+
+    /**
+     * The subscriber released a file.
+     * 
+     * @param file
+     */
+    public void onReleased(File file) {
+
+    }
+
+    /**
+     * 
+     * @return the parent hotfolder for these metrics.
+     */
+    public Hotfolder getParent() {
+      return parent;
+    }
+
+    private Metrics setParent(Hotfolder hotfolder) {
+      parent = hotfolder;
+      return this;
+    }
+
+  }
+
+  /**
+   * 
+   * @return the number of files being tracked (settling and dispatched).
+   */
+  public int getTracked() {
+    return trackers.size();
+  }
+
+  /**
+   * 
+   * @return the number of tracked files not yet dispatched.
+   */
+  public int getPending() {
+    return trackers.pendingCount();
+  }
+
+  /**
+   * 
+   * @return the number of settled files waiting for the subscriber.
+   */
+  public int getQueued() {
+    return dispatcher.queued();
+  }
+
+  /**
+   * 
+   * @return the number of files with the subscriber.
+   */
+  public int getInFlight() {
+    return dispatcher.inFlight();
+  }
+
+  private Executor executor;
+  private int maxInFlight = 4;
+  private int maxQueued = 1000;
+
+  /**
+   * The executor that calls the subscriber - the default runs each file on a virtual thread where
+   * the JDK has them (see {@link File#setExecutor(Executor)}).
+   * 
+   * @param executor
+   * @return this hotfolder.
+   */
+  public Hotfolder setExecutor(Executor executor) {
+    this.executor = executor;
+    return this;
+  }
+
+  /**
+   * <p>
+   * The number of files handed to the subscriber at once (default 4) and the number of settled files
+   * waiting for their turn (default 1000).
+   * 
+   * <p>
+   * When the queue is full no more files are accepted until there is room - they are picked up by a
+   * later scan.
+   * 
+   * @param maxInFlight
+   * @param maxQueued
+   * @return this hotfolder.
+   */
+  public Hotfolder setDispatch(int maxInFlight, int maxQueued) {
+    this.maxInFlight = Math.max(1, maxInFlight);
+    this.maxQueued = Math.max(1, maxQueued);
+    return this;
+  }
+
+  private final Dispatcher dispatcher = new Dispatcher();
+
+  /**
+   * Hands settled files to the subscriber on the executor so a slow subscriber does not hold up
+   * scanning.
+   */
+  private class Dispatcher {
+    private final Queue<Queued> queue = new ArrayDeque<>();
+    private int inFlight = 0;
+    private boolean paused = false;
+
+    private synchronized int queued() {
+      return queue.size();
+    }
+
+    private synchronized int inFlight() {
+      return inFlight;
+    }
+
+    /**
+     * Queue the file for the subscriber.
+     * 
+     * @return false (and nothing is queued) when the queue is full.
+     */
+    private boolean offer(File file, long key) {
+      synchronized (this) {
+        if (queue.size() >= maxQueued) {
+          if (!paused) {
+            paused = true;
+            getLogger().log(Level.CONFIG, "[Dispatch] Queue full - pausing intake.");
+          }
+          return false;
+        }
+        queue.add(new Queued(file, key, trackers.launch(key)));
+      }
+      drain();
+      return true;
+    }
+
+    private void drain() {
+      while (true) {
+        Queued queued;
+        synchronized (this) {
+          if (inFlight >= maxInFlight || queue.isEmpty()) {
+            return;
+          }
+          queued = queue.poll();
+          inFlight++;
+        }
+        try {
+          (executor == null ? Tasks.getExecutor() : executor).execute(() -> dispatch(queued));
+        } catch (RuntimeException e) {
+          getLogger().log(Level.SEVERE, "[Dispatch] Could not dispatch " + queued.file.getPath(), e);
+          done(queued.key, false);
+        }
+      }
+    }
+
+    private void dispatch(Queued queued) {
+      File file = queued.file;
+      File claimed;
+      try {
+        claimed = claim(file);
+      } catch (IOException | RuntimeException e) {
+        getLogger().log(Level.WARNING, "[Claim] Could not claim " + file.getPath(), e);
+        done(queued.key, false);
+        return;
+      }
+      if (claimed == null) {
+        getLogger().log(Level.FINE, "[Claim] Claimed by another node {0}", new Object[] {file.getPath()});
+        done(queued.key, true);
+        return;
+      }
+      boolean dispatched = false;
+      long start = System.currentTimeMillis();
+      try {
+        if (subscriber != null) {
+          subscriber.onAdded(claimed);
+        }
+        dispatched = true;
+      } catch (RuntimeException e) {
+        getLogger().log(Level.SEVERE, "[Dispatch] Subscriber failed for " + claimed.getPath(), e);
+        if (claimed != file) {
+          unclaim(file, claimed);
+        }
+      } finally {
+        try {
+          metrics.onDispatched(claimed, queued.seen == 0 ? 0 : start - queued.seen, System.currentTimeMillis() - start, !dispatched);
+        } catch (RuntimeException e) {
+          getLogger().log(Level.WARNING, "[Dispatch] Metrics failed.", e);
+        }
+        done(queued.key, dispatched);
+      }
+    }
+
+    private void done(long key, boolean dispatched) {
+      if (!dispatched) {
+        // Offer it again on a later scan.
+        trackers.clear(key);
+      }
+      boolean resume;
+      synchronized (this) {
+        inFlight--;
+        resume = paused && queue.size() < maxQueued;
+        if (resume) {
+          paused = false;
+        }
+      }
+      drain();
+      Watcher watcher = Hotfolder.this.watcher;
+      if (resume && watcher != null) {
+        watcher.request(0);
+      }
+    }
+
+    private synchronized void clear() {
+      // Not dispatched - offer them again next time.
+      for (Queued queued : queue) {
+        trackers.clear(queued.key);
+      }
+      queue.clear();
+      paused = false;
+    }
+
+  }
+
+  private static final class Queued {
+    private final File file;
+    private final long key;
+    // When the file was first seen.
+    private final long seen;
+
+    private Queued(File file, long key, long seen) {
+      this.file = file;
+      this.key = key;
+      this.seen = seen;
+    }
+
+  }
+
+  private HotfolderManager manager;
+  private volatile Runner runner;
+  private volatile Watcher watcher;
   private boolean running = false;
 
+  /**
+   * Run on the manager's scheduler rather than a thread of its own (see {@link HotfolderManager}).
+   */
+  void setManager(HotfolderManager manager) {
+    this.manager = manager;
+  }
+
   public boolean isRunning() {
     return running;
   }
 
   public Hotfolder setRunning(boolean running) {
     if (this.running != running) {
-      this.running = running;
       if (running) {
+        currentInterval = minInterval;
+        filters();
+        Runner runner = (manager == null) ? new Runner(Executors.newSingleThreadScheduledExecutor(), null) : manager.runner(this);
+        this.running = true;
         index = -1;
-        scheduler = Executors.newSingleThreadScheduledExecutor();
-        scheduler.scheduleWithFixedDelay(new Runnable() {
-          public void run() {
-            try {
-              onInterval(index++);
-            } catch (Exception ex) {
-              getLogger().log(Level.SEVERE, null, ex);
-            }
+        openJournal();
+        this.runner = runner;
+        if (watching && folder instanceof FilePlugin.SIOFile) {
+          try {
+            Path root = ((FilePlugin.SIOFile) folder).toPath();
+            // The manager's watch thread is shared - one of its own otherwise.
+            watcher = (manager == null) ? new Watcher(root, new Watches("Hotfolder-watch-" + id), true) : new Watcher(root, manager.watches(), false);
+            // Start straight away (rather than waiting for the first full scan).
+            runner.execute(() -> onInterval(index++));
+          } catch (IOException | RuntimeException e) {
+            getLogger().log(Level.WARNING, "[Watching] Could not watch folder - polling instead.", e);
           }
-        }, interval, interval, unit);
+        }
+        long period = (watcher != null) ? rescanInterval : isAdaptive() ? minInterval : unit.toMillis(interval);
+        runner.scan(manager == null ? period : manager.offset(period));
       } else {
-        scheduler.shutdownNow();
-        try {
-          scheduler.awaitTermination(10, TimeUnit.SECONDS);
-        } catch (InterruptedException ex) {
+        this.running = false;
+        runner.stop();
+        if (watcher != null) {
+          watcher.close();
+          watcher = null;
         }
+        // Files already with the subscriber carry on.
+        dispatcher.clear();
+        closeJournal();
         reset();
       }
     }
     return this;
   }
 
+  /**
+   * <p>
+   * Runs the scans and watch passes of one start of the hotfolder - one at a time, in order, on a
+   * scheduler of its own or one shared by a {@link HotfolderManager}.
+   * 
+   * <p>
+   * Full scans wait for a place at the gate (when there is one) so only so many scans hit a host at
+   * once.
+   */
+  class Runner {
+    private final ScheduledExecutorService scheduler;
+    private final Tasks.Gate gate;
+    private final boolean owned = (manager == null);
+    private final Queue<Runnable> queue = new ArrayDeque<>();
+    private final Set<Future<?>> scheduled = ConcurrentHashMap.newKeySet();
+    private boolean active = false;
+    private volatile boolean stopped = false;
+
+    /**
+     * @param scheduler shut down with the runner unless a manager owns it.
+     * @param gate for the full scans (null for none).
+     */
+    Runner(ScheduledExecutorService scheduler, Tasks.Gate gate) {
+      this.scheduler = scheduler;
+      this.gate = gate;
+    }
+
+    /**
+     * Run the task after the tasks already queued.
+     */
+    void execute(Runnable task) {
+      synchronized (this) {
+        queue.add(task);
+        if (active) {
+          return;
+        }
+        active = true;
+      }
+      try {
+        scheduler.execute(this::drain);
+      } catch (RejectedExecutionException e) {
+        // Stopping.
+        synchronized (this) {
+          active = false;
+          notifyAll();
+        }
+        drop();
+      }
+    }
+
+    private void drain() {
+      while (true) {
+        Runnable task;
+        synchronized (this) {
+          task = queue.poll();
+          if (task == null) {
+            active = false;
+            notifyAll();
+            return;
+          }
+        }
+        try {
+          task.run();
+        } catch (RuntimeException e) {
+          getLogger().log(Level.SEVERE, null, e);
+        }
+      }
+    }
+
+    /**
+     * Clear the queue - a dropped scan gives its place at the gate back.
+     */
+    private void drop() {
+      int admitted = 0;
+      synchronized (this) {
+        for (Runnable task : queue) {
+          if (task instanceof Admitted) {
+            admitted++;
+          }
+        }
+        queue.clear();
+      }
+      // Outside the lock (the place can pass straight to another runner).
+      for (; admitted > 0; admitted--) {
+        gate.leave();
+      }
+    }
+
+    /**
+     * Run the task after the delay (in milliseconds).
+     */
+    void later(Runnable task, long delay) {
+      if (stopped) {
+        return;
+      }
+      try {
+        scheduled.add(scheduler.schedule(() -> execute(task), delay, TimeUnit.MILLISECONDS));
+        scheduled.removeIf(Future::isDone);
+      } catch (RejectedExecutionException e) {
+        // Stopping.
+      }
+    }
+
+    /**
+     * Start a full scan after the delay (in milliseconds) - the next one follows an interval after
+     * it finishes.
+     */
+    void scan(long delay) {
+      later(() -> {
+        if (gate == null) {
+          interval();
+        } else {
+          gate.enter(() -> execute(new Admitted()));
+        }
+      }, delay);
+    }
+
+    private void interval() {
+      if (stopped) {
+        return;
+      }
+      try {
+        onInterval(index++);
+      } catch (Exception ex) {
+        getLogger().log(Level.SEVERE, null, ex);
+      } finally {
+        scan(nextInterval());
+      }
+    }
+
+    /**
+     * A scan holding a place at the gate - passed to the next waiting scan when done (or dropped).
+     */
+    private class Admitted implements Runnable {
+
+      @Override
+      public void run() {
+        try {
+          interval();
+        } finally {
+          gate.leave();
+        }
+      }
+
+    }
+
+    /**
+     * Cancel what is scheduled and wait (a while) for the task in progress.
+     */
+    void stop() {
+      stopped = true;
+      for (Future<?> future : scheduled) {
+        future.cancel(false);
+      }
+      scheduled.clear();
+      drop();
+      synchronized (this) {
+        long end = System.currentTimeMillis() + 10000;
+        try {
+          for (long wait; active && (wait = end - System.currentTimeMillis()) > 0;) {
+            wait(wait);
+          }
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+      }
+      if (owned) {
+        scheduler.shutdownNow();
+      }
+    }
+
+    boolean isStopped() {
+      return stopped;
+    }
+
+  }
+
   public void release(File file) {
-    FileTracker tracker = filemap.remove(file);
-    if (tracker != null) {
-      tracker.clear();
+    trackers.remove(trackers.key(file.getPath()));
+    try {
+      metrics.onReleased(file);
+    } catch (RuntimeException e) {
+      getLogger().log(Level.WARNING, "[Release] Metrics failed.", e);
     }
   }
 
   public Hotfolder reset() {
-    filemap.clear();
+    trackers.clear();
     return this;
   }
 
-  private final Map<File, FileTracker> filemap = new ConcurrentHashMap<File, FileTracker>();
+  private final Trackers trackers = new Trackers();
+
+  private void openJournal() {
+    if (journalDirectory == null) {
+      return;
+    }
+    if (!(journalDirectory instanceof FilePlugin.SIOFile)) {
+      getLogger().log(Level.WARNING, "[Journal] Journal directory must be local - not journaling.");
+      return;
+    }
+    try {
+      Journal journal = new Journal(((FilePlugin.SIOFile) journalDirectory).toPath());
+      journal.replay(trackers);
+      trackers.setJournal(journal);
+      this.journal = journal;
+      scanned = false;
+      getLogger().log(Level.CONFIG, "[Journal] Restored {0} files.", new Object[] {trackers.size()});
+    } catch (IOException | RuntimeException e) {
+      getLogger().log(Level.SEVERE, "[Journal] Could not open journal - not journaling.", e);
+      trackers.clear();
+    }
+  }
+
+  /**
+   * Make the changes so far durable (compacting the journal when it has grown).
+   */
+  private void flushJournal() {
+    Journal journal = this.journal;
+    if (journal == null) {
+      return;
+    }
+    try {
+      if (scanned && journal.shouldCompact(trackers.size())) {
+        trackers.compact();
+      } else {
+        journal.flush();
+      }
+    } catch (IOException e) {
+      getLogger().log(Level.SEVERE, "[Journal] ERROR", e);
+    }
+  }
+
+  private void closeJournal() {
+    Journal journal = this.journal;
+    if (journal == null) {
+      return;
+    }
+    try {
+      if (scanned) {
+        trackers.compact();
+      }
+    } catch (IOException e) {
+      getLogger().log(Level.SEVERE, "[Journal] ERROR", e);
+    } finally {
+      trackers.setJournal(null);
+      this.journal = null;
+      try {
+        journal.close();
+      } catch (IOException e) {
+        getLogger().log(Level.SEVERE, "[Journal] ERROR", e);
+      }
+    }
+  }
 
   private void onInterval(int interval) {
     if (folder == null) {
@@ -210,81 +1054,241 @@ public class Hotfolder {
     try {
       if (!folder.exists()) {
         getLogger().log(Level.WARNING, "[Scanning] Target folder not found.");
+        metrics.onScanError(new IOException("Target folder not found: " + folder.getPath()));
         return;
       }
     } catch (IOException e) {
       getLogger().log(Level.SEVERE, "[Scanning] Target folder not found.", e);
+      metrics.onScanError(e);
     }
     getLogger().log(Level.CONFIG, "[Scanning] {0}", new Object[] {folder.getPath()});
+    long start = System.currentTimeMillis();
     try {
-      List<File> files = folder.list(grab, move, sorter);
-      for (File file : filemap.keySet().toArray(new File[0])) {
-        if (!files.contains(file)) {
-          filemap.remove(file);
-        }
-      }
+      List<File> files = folder.list(grabbing, moving, sorter);
+      Watcher watcher = this.watcher;
+      // Watched files keep their path until dispatched (so they can be checked between scans).
+      String base = (watcher == null) ? null : Transfers.directory(folder.getPath());
+      trackers.scan();
+      boolean paused = false, busy = false;
+      long stealAt = Long.MAX_VALUE;
       for (File file : files) {
-        if (filemap.containsKey(file)) {
-          FileTracker tracker = filemap.get(file);
-          if (!tracker.isLaunched()) {
-            if (tracker.check(file.length(), file.getLastModified()) >= settle) {
-              if (subscriber != null) {
-                subscriber.onAdded(file);
-              }
-              tracker.launch();
-            }
+        FileAttributes attributes = file.getAttributes();
+        int duration = trackers.check(file.getPath(), attributes.length(), attributes.getLastModified(), base == null ? null : Transfers.relative(base, file));
+        if (duration < 0) {
+          continue;
+        }
+        long key = trackers.key(file.getPath());
+        if (!owns(file, key)) {
+          // Another node's - idle here until it can be stolen.
+          if (steal >= 0) {
+            stealAt = Math.min(stealAt, trackers.seen(key) + steal);
           }
-        } else {
-          filemap.put(file, new FileTracker(file.length(), file.getLastModified()));
+        } else if (duration < settle || paused || (paused = !dispatcher.offer(file, key))) {
+          busy = true;
         }
       }
-
+      // Anything not listed has gone.
+      trackers.sweep();
+      scanned = true;
+      this.busy = busy;
+      this.stealAt = stealAt;
+      metrics.onScan(System.currentTimeMillis() - start, files.size());
+      flushJournal();
+      if (watcher != null && busy) {
+        watcher.request(watchInterval);
+      }
     } catch (IOException e) {
       getLogger().log(Level.SEVERE, "[Scanning] ERROR", e);
+      metrics.onScanError(e);
     }
   }
 
-  private class FileTracker {
+  /**
+   * Handle the changes reported since the last pass and check the files that have not settled -
+   * runs on the scheduler (like the full scans).
+   */
+  private void onEvents(Watcher watcher) {
+    watcher.scheduled.set(false);
+    if (watcher.overflow.getAndSet(false)) {
+      watcher.events.clear();
+      try {
+        // Directories created in the lost events are not watched yet.
+        watcher.register(watcher.root, -1, false);
+      } catch (IOException e) {
+        getLogger().log(Level.SEVERE, "[Watching] ERROR", e);
+      }
+      onInterval(index++);
+      return;
+    }
+    try {
+      Path path;
+      while ((path = watcher.events.poll()) != null) {
+        watcher.changed(path);
+      }
+      // Files settle over watch intervals (however many events arrive in between).
+      long wait = watcher.checked + watchInterval - System.currentTimeMillis();
+      if (wait > 0) {
+        watcher.request(wait);
+        return;
+      }
+      watcher.checked = System.currentTimeMillis();
+      List<File> ready = new ArrayList<>();
+      boolean pending = false;
+      for (Trackers.Pending entry : trackers.pending()) {
+        if (entry.fresh) {
+          pending = true;
+          continue;
+        }
+        File file = folder.create(entry.path);
+        if (!owns(file, entry.key)) {
+          // Another node's - left to the full scans.
+          continue;
+        }
+        FileAttributes attributes = file.refresh().getAttributes();
+        if (!attributes.exists()) {
+          trackers.remove(entry.key);
+        } else if (trackers.check(file.getPath(), attributes.length(), attributes.getLastModified(), entry.path) >= settle) {
+          ready.add(file);
+        } else {
+          pending = true;
+        }
+      }
+      File.comparators.sort(ready, sorter);
+      for (File file : ready) {
+        if (!dispatcher.offer(file, trackers.key(file.getPath()))) {
+          break;
+        }
+      }
+      if (pending) {
+        watcher.request(watchInterval);
+      }
+      flushJournal();
+    } catch (IOException e) {
+      getLogger().log(Level.SEVERE, "[Watching] ERROR", e);
+    }
+  }
+
+  /**
+   * Receives the change events for a local folder (and the directories below it that the move filter
+   * follows) from the watch thread and hands them to the scheduler.
+   */
+  private class Watcher implements Watches.Listener, Closeable {
+    private final Path root;
+    private final Watches watches;
+    // The watches are the hotfolder's own (closed with the watcher) rather than the manager's.
+    private final boolean owned;
+    private final Map<WatchKey, Path> keys = new ConcurrentHashMap<>();
+    private final Queue<Path> events = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean overflow = new AtomicBoolean(false);
+    private final AtomicBoolean scheduled = new AtomicBoolean(false);
+    private long checked = 0;
 
-    public FileTracker(long size, long lastmod) {
-      this.size = size;
-      this.lastmod = lastmod;
+    private Watcher(Path root, Watches watches, boolean owned) throws IOException {
+      this.root = root;
+      this.watches = watches;
+      this.owned = owned;
+      try {
+        register(root, -1, false);
+      } catch (IOException | RuntimeException e) {
+        close();
+        throw e;
+      }
     }
 
-    public int check(long size, long lastmod) {
-      if (launched) {
-        return -1;
-      } else if (this.size == size && this.lastmod == lastmod) {
-        duration++;
-      } else {
-        duration = (duration > 0) ? duration : 0;
-        this.size = size;
-        this.lastmod = lastmod;
+    /**
+     * Watch the directory and the directories below it that the move filter follows (optionally
+     * tracking the entries found as if they were new).
+     */
+    private void register(Path dir, int depth, boolean track) throws IOException {
+      keys.put(watches.register(dir, this), dir);
+      try (DirectoryStream<Path> entries = Files.newDirectoryStream(dir)) {
+        for (Path entry : entries) {
+          if (track) {
+            changed(entry);
+          } else if (Files.isDirectory(entry) && moving.shouldMove(resolve(entry, true), depth + 1)) {
+            register(entry, depth + 1, false);
+          }
+        }
       }
-      return duration;
     }
 
-    public void launch() {
-      launched = true;
+    private File resolve(Path path, boolean directory) throws IOException {
+      return folder.create(relative(path, directory));
     }
 
-    public void clear() {
-      launched = false;
+    private String relative(Path path, boolean directory) {
+      return root.relativize(path).toString().replace(java.io.File.separatorChar, '/') + (directory ? "/" : "");
     }
 
-    public boolean isLaunched() {
-      return launched;
+    /**
+     * A path was created, modified or deleted.
+     */
+    private void changed(Path path) throws IOException {
+      boolean directory = Files.isDirectory(path);
+      File file = resolve(path, directory);
+      if (!Files.exists(path)) {
+        // It could have been either.
+        trackers.remove(trackers.key(file.getPath()));
+        trackers.remove(trackers.key(file.getPath() + "/"));
+        return;
+      }
+      if (directory) {
+        int depth = root.relativize(path).getNameCount() - 1;
+        if (!keys.containsValue(path) && moving.shouldMove(file, depth)) {
+          // Track what arrived before it was watched.
+          register(path, depth, true);
+        }
+      }
+      if (!trackers.contains(trackers.key(file.getPath())) && grabbing.shouldGrab(file)) {
+        FileAttributes attributes = file.getAttributes();
+        trackers.track(file.getPath(), attributes.length(), attributes.getLastModified(), relative(path, directory));
+      }
+    }
+
+    /**
+     * Ask for a pass after the delay (unless one is already waiting).
+     */
+    private void request(long delay) {
+      if (scheduled.compareAndSet(false, true)) {
+        Runner runner = Hotfolder.this.runner;
+        if (runner != null) {
+          runner.later(() -> {
+            if (!runner.isStopped()) {
+              Hotfolder.this.onEvents(this);
+            }
+          }, delay);
+        }
+      }
+    }
+
+    @Override
+    public void onEvents(WatchKey key, Path dir, List<WatchEvent<?>> events) {
+      for (WatchEvent<?> event : events) {
+        if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+          overflow.set(true);
+        } else {
+          this.events.add(dir.resolve((Path) event.context()));
+        }
+      }
+      request(0);
+    }
+
+    @Override
+    public void onInvalid(WatchKey key) {
+      keys.remove(key);
     }
 
     @Override
-    public String toString() {
-      return "FileTracker[duration=" + duration + ",lastmod=" + lastmod + ",size=" + size + "]";
+    public void close() {
+      for (WatchKey key : keys.keySet()) {
+        watches.cancel(key);
+      }
+      keys.clear();
+      if (owned) {
+        watches.close();
+      }
     }
 
-    private boolean launched;
-    private long size = 0;
-    private int duration = 0;
-    private long lastmod = 0;
   }
 
 }
@@ -0,0 +1,250 @@
+package org.keeber.simpleio;
+
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * <p>
+ * Keeps histograms and counts of what a hotfolder is doing - scan times and sizes, how long files
+ * take to settle and how long the subscriber takes with them - and can publish them as an MBean
+ * (org.keeber.simpleio:type=Hotfolder,name=&lt;id&gt;).
+ *
+ * <pre>
+ * <code>
+ * HotfolderMetrics metrics = new HotfolderMetrics();
+ * hotfolder.setMetrics(metrics);
+ * metrics.register();
+ * </code>
+ * </pre>
+ */
+public class HotfolderMetrics extends Hotfolder.Metrics implements HotfolderMetricsMBean {
+  private static final Logger logger = Logger.getLogger(HotfolderMetrics.class.getSimpleName());
+
+  private final Histogram scans = new Histogram();
+  private final Histogram settles = new Histogram();
+  private final Histogram subscribers = new Histogram();
+  private final AtomicLong scanErrors = new AtomicLong();
+  private final AtomicInteger lastListed = new AtomicInteger();
+  private volatile String lastError;
+  private final AtomicLong failures = new AtomicLong();
+  private final AtomicLong released = new AtomicLong();
+  // Releases per second over the last minute.
+  private final long[] seconds = new long[60];
+  private long second = 0;
+  private ObjectName name;
+
+  @Override
+  public void onScan(long millis, int listed) {
+    scans.record(millis);
+    lastListed.set(listed);
+  }
+
+  @Override
+  public void onScanError(Exception e) {
+    scanErrors.incrementAndGet();
+    lastError = String.valueOf(e);
+  }
+
+  @Override
+  public void onDispatched(File file, long waited, long elapsed, boolean failed) {
+    settles.record(waited);
+    subscribers.record(elapsed);
+    if (failed) {
+      failures.incrementAndGet();
+    }
+  }
+
+  @Override
+  public void onReleased(File file) {
+    released.incrementAndGet();
+    synchronized (seconds) {
+      seconds[(int) (advance() % seconds.length)]++;
+    }
+  }
+
+  /**
+   * Move the minute window on to the current second (clearing the seconds passed).
+   */
+  private long advance() {
+    long now = System.currentTimeMillis() / 1000;
+    for (long s = Math.max(second + 1, now - seconds.length + 1); s <= now; s++) {
+      seconds[(int) (s % seconds.length)] = 0;
+    }
+    second = Math.max(second, now);
+    return now;
+  }
+
+  /**
+   * Publish the metrics on the platform MBean server (named after the parent hotfolder).
+   *
+   * @return this metrics.
+   */
+  public synchronized HotfolderMetrics register() {
+    if (name == null) {
+      try {
+        ObjectName name = new ObjectName("org.keeber.simpleio:type=Hotfolder,name=" + ObjectName.quote(getParent() == null ? "unknown" : getParent().getId()));
+        ManagementFactory.getPlatformMBeanServer().registerMBean(this, name);
+        this.name = name;
+      } catch (JMException e) {
+        logger.log(Level.WARNING, "[Metrics] Could not register MBean.", e);
+      }
+    }
+    return this;
+  }
+
+  public synchronized HotfolderMetrics unregister() {
+    if (name != null) {
+      try {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        if (server.isRegistered(name)) {
+          server.unregisterMBean(name);
+        }
+      } catch (JMException e) {
+        logger.log(Level.WARNING, "[Metrics] Could not unregister MBean.", e);
+      }
+      name = null;
+    }
+    return this;
+  }
+
+  @Override
+  public long getScans() {
+    return scans.getCount();
+  }
+
+  @Override
+  public long getScanErrors() {
+    return scanErrors.get();
+  }
+
+  @Override
+  public String getLastScanError() {
+    return lastError;
+  }
+
+  @Override
+  public int getLastScanListed() {
+    return lastListed.get();
+  }
+
+  @Override
+  public double getScanMillisMean() {
+    return scans.getMean();
+  }
+
+  @Override
+  public long getScanMillis95() {
+    return scans.getPercentile(95);
+  }
+
+  @Override
+  public long getScanMillisMax() {
+    return scans.getMax();
+  }
+
+  @Override
+  public int getTracked() {
+    return getParent() == null ? 0 : getParent().getTracked();
+  }
+
+  @Override
+  public int getPending() {
+    return getParent() == null ? 0 : getParent().getPending();
+  }
+
+  @Override
+  public int getQueued() {
+    return getParent() == null ? 0 : getParent().getQueued();
+  }
+
+  @Override
+  public int getInFlight() {
+    return getParent() == null ? 0 : getParent().getInFlight();
+  }
+
+  @Override
+  public long getDispatched() {
+    return subscribers.getCount();
+  }
+
+  @Override
+  public long getSubscriberFailures() {
+    return failures.get();
+  }
+
+  @Override
+  public double getSettleMillisMean() {
+    return settles.getMean();
+  }
+
+  @Override
+  public long getSettleMillis95() {
+    return settles.getPercentile(95);
+  }
+
+  @Override
+  public long getSettleMillisMax() {
+    return settles.getMax();
+  }
+
+  @Override
+  public double getSubscriberMillisMean() {
+    return subscribers.getMean();
+  }
+
+  @Override
+  public long getSubscriberMillis95() {
+    return subscribers.getPercentile(95);
+  }
+
+  @Override
+  public long getSubscriberMillisMax() {
+    return subscribers.getMax();
+  }
+
+  @Override
+  public long getReleased() {
+    return released.get();
+  }
+
+  @Override
+  public long getReleasedLastMinute() {
+    synchronized (seconds) {
+      advance();
+      long total = 0;
+      for (long count : seconds) {
+        total += count;
+      }
+      return total;
+    }
+  }
+
+  @Override
+  public void reset() {
+    scans.reset();
+    settles.reset();
+    subscribers.reset();
+    scanErrors.set(0);
+    lastListed.set(0);
+    lastError = null;
+    failures.set(0);
+    released.set(0);
+    synchronized (seconds) {
+      Arrays.fill(seconds, 0);
+    }
+  }
+
+  @Override
+  public String toString() {
+    return "HotfolderMetrics [scans=" + getScans() + ", scanErrors=" + getScanErrors() + ", scanMillis95=" + getScanMillis95() + ", tracked=" + getTracked() + ", pending=" + getPending() + ", dispatched=" + getDispatched() + ", settleMillis95=" + getSettleMillis95() + ", subscriberMillis95=" + getSubscriberMillis95() + ", released=" + getReleased() + "]";
+  }
+
+}
@@ -0,0 +1,53 @@
+package org.keeber.simpleio;
+
+/**
+ * The JMX view of {@link HotfolderMetrics} - times are in milliseconds and percentiles are upper
+ * bounds within a factor of two.
+ */
+public interface HotfolderMetricsMBean {
+
+  long getScans();
+
+  long getScanErrors();
+
+  String getLastScanError();
+
+  int getLastScanListed();
+
+  double getScanMillisMean();
+
+  long getScanMillis95();
+
+  long getScanMillisMax();
+
+  int getTracked();
+
+  int getPending();
+
+  int getQueued();
+
+  int getInFlight();
+
+  long getDispatched();
+
+  long getSubscriberFailures();
+
+  double getSettleMillisMean();
+
+  long getSettleMillis95();
+
+  long getSettleMillisMax();
+
+  double getSubscriberMillisMean();
+
+  long getSubscriberMillis95();
+
+  long getSubscriberMillisMax();
+
+  long getReleased();
+
+  long getReleasedLastMinute();
+
+  void reset();
+
+}
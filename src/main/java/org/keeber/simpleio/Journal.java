@@ -0,0 +1,363 @@
+package org.keeber.simpleio;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.FileOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UTFDataFormatException;
+import java.nio.ByteBuffer;
+import java.nio.LongBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * <p>
+ * The durable state of a {@link Hotfolder} - kept in a local directory so a restart carries on where
+ * it stopped (settling files keep their progress and dispatched files are not dispatched again).
+ *
+ * <p>
+ * Two files are kept:
+ * <ul>
+ * <li>processed.idx - the sorted identities (path and size/modification time) of the files
+ * dispatched as of the last compaction. It is memory mapped and searched on disk behind an in memory
+ * Bloom filter (about 10 bits a file) so millions of processed files cost very little memory.</li>
+ * <li>journal.log - every tracker change since the last compaction, replayed on start.</li>
+ * </ul>
+ *
+ * <p>
+ * Compaction writes a new index from the trackers and starts a new journal with only the files still
+ * settling. Records are flushed after each scan so a crash can lose the last few changes - a file
+ * dispatched just before a crash may be dispatched again (at least once).
+ */
+final class Journal implements Closeable {
+  private static final int MAGIC = 0x53494F4A;
+  private static final int VERSION = 2;
+  private static final int HEADER = 16;
+  private static final int HASHES = 7;
+
+  static final byte TRACK = 'T';
+  static final byte LAUNCH = 'L';
+  static final byte CLEAR = 'C';
+  static final byte REMOVE = 'R';
+
+  private final Path index;
+  private final Path log;
+  private LongBuffer processed;
+  private long[] bloom;
+  // Processed files (in the index) removed since the last compaction.
+  private final Set<Long> removed = new HashSet<>();
+  private FileOutputStream file;
+  private DataOutputStream out;
+  private long records = 0;
+  private IOException failure;
+
+  /**
+   * A tracker change.
+   */
+  static final class Record {
+    final byte type;
+    final long key;
+    // The check hash of the path (the high half) and the size/modification time fingerprint.
+    final long print;
+    final int state;
+    final String path;
+
+    Record(byte type, long key, long print, int state, String path) {
+      this.type = type;
+      this.key = key;
+      this.print = print;
+      this.state = state;
+      this.path = path;
+    }
+
+  }
+
+  Journal(Path directory) throws IOException {
+    Files.createDirectories(directory);
+    this.index = directory.resolve("processed.idx");
+    this.log = directory.resolve("journal.log");
+    load();
+  }
+
+  /**
+   * The identity of a processed file - its path key and size/modification time fingerprint.
+   */
+  static long identity(long key, long print) {
+    long h = key ^ (print * 0x9e3779b97f4a7c15L);
+    h ^= h >>> 32;
+    h *= 0xd6e8feb86659fd93L;
+    h ^= h >>> 32;
+    return h;
+  }
+
+  private void load() throws IOException {
+    processed = LongBuffer.allocate(0);
+    if (Files.exists(index)) {
+      try (FileChannel channel = FileChannel.open(index, StandardOpenOption.READ)) {
+        ByteBuffer header = ByteBuffer.allocate(HEADER);
+        if (channel.read(header) < HEADER || header.getInt(0) != MAGIC || header.getInt(4) != VERSION) {
+          throw new IOException("Not a hotfolder index: " + index);
+        }
+        long count = header.getLong(8);
+        if (count < 0 || count > (channel.size() - HEADER) / 8) {
+          throw new IOException("Corrupt hotfolder index (" + count + " identities in " + channel.size() + " bytes): " + index);
+        }
+        if (count * 8 > Integer.MAX_VALUE) {
+          throw new IOException("Hotfolder index too large to map (" + count + " identities): " + index);
+        }
+        processed = channel.map(FileChannel.MapMode.READ_ONLY, HEADER, count * 8).asLongBuffer();
+      }
+    }
+    int bits = Integer.highestOneBit(Math.max(64, processed.limit() * 10 - 1)) << 1;
+    bloom = new long[bits / 64];
+    for (int i = 0; i < processed.limit(); i++) {
+      long identity = processed.get(i);
+      for (int k = 0; k < HASHES; k++) {
+        int bit = bit(identity, k);
+        bloom[bit >>> 6] |= 1L << bit;
+      }
+    }
+  }
+
+  private int bit(long identity, int k) {
+    long h2 = (identity >>> 17) * 0xc2b2ae3d27d4eb4fL | 1;
+    return (int) ((identity + k * h2) & (bloom.length * 64L - 1));
+  }
+
+  private boolean indexed(long identity) {
+    for (int k = 0; k < HASHES; k++) {
+      int bit = bit(identity, k);
+      if ((bloom[bit >>> 6] & (1L << bit)) == 0) {
+        return false;
+      }
+    }
+    int low = 0, high = processed.limit() - 1;
+    while (low <= high) {
+      int mid = (low + high) >>> 1;
+      long value = processed.get(mid);
+      if (value < identity) {
+        low = mid + 1;
+      } else if (value > identity) {
+        high = mid - 1;
+      } else {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * @return true if the file (with this size and modification time) was dispatched before the last
+   *         compaction and has not been removed since.
+   */
+  synchronized boolean processed(long key, long print) {
+    long identity = identity(key, print);
+    return indexed(identity) && !removed.contains(identity);
+  }
+
+  /**
+   * Replay the journal into the trackers then open it for appending (a torn last record is dropped).
+   * Called before the journal is given to the trackers.
+   */
+  void replay(Trackers trackers) throws IOException {
+    long good = 0;
+    if (Files.exists(log)) {
+      Counting counting = new Counting(new BufferedInputStream(Files.newInputStream(log)));
+      try (DataInputStream is = new DataInputStream(counting)) {
+        if (is.readInt() != MAGIC || is.readInt() != VERSION) {
+          throw new IOException("Not a hotfolder journal: " + log);
+        }
+        good = counting.count;
+        while (true) {
+          Record record;
+          try {
+            byte type = is.readByte();
+            long key = is.readLong();
+            long print = is.readLong();
+            int state = is.readInt();
+            String path = is.readUTF();
+            record = new Record(type, key, print, state, path.isEmpty() ? null : path);
+          } catch (EOFException | UTFDataFormatException e) {
+            // A torn last record (the rest of the journal is dropped).
+            break;
+          }
+          trackers.apply(record);
+          if (record.type == REMOVE) {
+            removed(record.key, record.print);
+          }
+          good = counting.count;
+          records++;
+        }
+      } catch (EOFException e) {
+        // Torn header.
+        good = 0;
+      }
+    }
+    open(good);
+  }
+
+  private void open(long length) throws IOException {
+    boolean header = length == 0;
+    try (FileChannel channel = FileChannel.open(log, StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+      channel.truncate(length);
+    }
+    file = new FileOutputStream(log.toFile(), true);
+    out = new DataOutputStream(new BufferedOutputStream(file));
+    if (header) {
+      out.writeInt(MAGIC);
+      out.writeInt(VERSION);
+    }
+  }
+
+  private void removed(long key, long print) {
+    long identity = identity(key, print);
+    if (indexed(identity)) {
+      removed.add(identity);
+    }
+  }
+
+  /**
+   * Append a tracker change (a write failure is thrown by the next {@link #flush()}).
+   */
+  synchronized void record(byte type, long key, long print, int state, String path) {
+    try {
+      out.writeByte(type);
+      out.writeLong(key);
+      out.writeLong(print);
+      out.writeInt(state);
+      out.writeUTF(path == null ? "" : path);
+    } catch (IOException e) {
+      if (failure == null) {
+        failure = e;
+      }
+    }
+    records++;
+    if (type == REMOVE) {
+      removed(key, print);
+    }
+  }
+
+  /**
+   * Make the records so far durable.
+   */
+  synchronized void flush() throws IOException {
+    if (failure != null) {
+      IOException e = failure;
+      failure = null;
+      throw e;
+    }
+    out.flush();
+    file.getFD().sync();
+  }
+
+  /**
+   * @return true once the journal has grown well past the number of tracked files.
+   */
+  synchronized boolean shouldCompact(int tracked) {
+    return records > 10000 + 2L * tracked;
+  }
+
+  /**
+   * Replace the index and journal with the given state (the index is written first - an interrupted
+   * compaction leaves the old journal which replays harmlessly over the new index).
+   *
+   * @param processed the identities of the dispatched files.
+   * @param settling the files still settling.
+   */
+  synchronized void compact(long[] processed, List<Record> settling) throws IOException {
+    Arrays.sort(processed);
+    Path temp = index.resolveSibling(index.getFileName() + ".tmp");
+    FileOutputStream fos = new FileOutputStream(temp.toFile());
+    try (DataOutputStream os = new DataOutputStream(new BufferedOutputStream(fos))) {
+      os.writeInt(MAGIC);
+      os.writeInt(VERSION);
+      os.writeLong(processed.length);
+      for (long identity : processed) {
+        os.writeLong(identity);
+      }
+      // Durable before it replaces the old one.
+      os.flush();
+      fos.getFD().sync();
+    }
+    Files.move(temp, index, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    out.close();
+    temp = log.resolveSibling(log.getFileName() + ".tmp");
+    fos = new FileOutputStream(temp.toFile());
+    try (DataOutputStream os = new DataOutputStream(new BufferedOutputStream(fos))) {
+      os.writeInt(MAGIC);
+      os.writeInt(VERSION);
+      for (Record record : settling) {
+        os.writeByte(record.type);
+        os.writeLong(record.key);
+        os.writeLong(record.print);
+        os.writeInt(record.state);
+        os.writeUTF(record.path == null ? "" : record.path);
+      }
+      os.flush();
+      fos.getFD().sync();
+    }
+    Files.move(temp, log, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    removed.clear();
+    records = settling.size();
+    load();
+    open(Files.size(log));
+  }
+
+  @Override
+  public synchronized void close() throws IOException {
+    flush();
+    out.close();
+  }
+
+  /**
+   * Counts the bytes read - the end of the last whole record (strings are modified UTF-8, so their
+   * length can not be worked out from the decoded text).
+   */
+  private static final class Counting extends FilterInputStream {
+    private long count = 0;
+
+    Counting(InputStream in) {
+      super(in);
+    }
+
+    @Override
+    public int read() throws IOException {
+      int b = super.read();
+      if (b != -1) {
+        count++;
+      }
+      return b;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+      int n = super.read(b, off, len);
+      if (n > 0) {
+        count += n;
+      }
+      return n;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+      long skipped = super.skip(n);
+      count += skipped;
+      return skipped;
+    }
+
+  }
+
+}
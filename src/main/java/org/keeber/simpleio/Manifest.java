@@ -0,0 +1,133 @@
+package org.keeber.simpleio;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import org.keeber.simpleio.plugin.FilePlugin;
+
+/**
+ * <p>
+ * The state of a source tree at the last sync - a relative path, size, modification time and
+ * (optionally) content hash for each file.
+ *
+ * <p>
+ * Stored as a compressed binary file. It is written to a temporary file first and then renamed over
+ * the old one so a failed write never loses the previous state - atomically for local files, other
+ * schemes delete the old one first.
+ */
+final class Manifest {
+  private static final Logger logger = Logger.getLogger(Manifest.class.getSimpleName());
+  private static final int MAGIC = 0x53494F4D;
+  private static final int VERSION = 1;
+
+  private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+
+  static final class Entry {
+    final long length;
+    final long lastModified;
+    final String hash;
+
+    Entry(long length, long lastModified, String hash) {
+      this.length = length;
+      this.lastModified = lastModified;
+      this.hash = hash;
+    }
+
+    boolean matches(FileAttributes attributes) {
+      return length == attributes.length() && lastModified == attributes.getLastModified();
+    }
+
+  }
+
+  Map<String, Entry> entries() {
+    return entries;
+  }
+
+  /**
+   * Load the manifest - an empty one if the file does not exist yet.
+   */
+  static Manifest load(File file) throws IOException {
+    if (file.exists()) {
+      return read(file);
+    }
+    // Interrupted between replacing the old manifest and renaming the new one?
+    File temp = temp(file);
+    if (temp.exists()) {
+      try {
+        return read(temp);
+      } catch (IOException e) {
+        // Or while writing it - start again.
+        logger.log(Level.WARNING, "[Manifest] Ignoring unreadable " + temp.getPath(), e);
+      }
+    }
+    return new Manifest();
+  }
+
+  private static Manifest read(File file) throws IOException {
+    Manifest manifest = new Manifest();
+    try (DataInputStream is = new DataInputStream(new BufferedInputStream(new GZIPInputStream(file.open(File.READ))))) {
+      if (is.readInt() != MAGIC || is.readInt() != VERSION) {
+        throw new IOException("Not a manifest: " + file.getPath());
+      }
+      for (int i = is.readInt(); i > 0; i--) {
+        String path = is.readUTF();
+        long length = is.readLong();
+        long lastModified = is.readLong();
+        String hash = is.readUTF();
+        manifest.entries.put(path, new Entry(length, lastModified, hash.isEmpty() ? null : hash));
+      }
+    }
+    return manifest;
+  }
+
+  void save(File file) throws IOException {
+    File temp = temp(file);
+    try (DataOutputStream os = new DataOutputStream(new BufferedOutputStream(new GZIPOutputStream(temp.open(File.WRITE))))) {
+      os.writeInt(MAGIC);
+      os.writeInt(VERSION);
+      os.writeInt(entries.size());
+      for (Map.Entry<String, Entry> e : entries.entrySet()) {
+        os.writeUTF(e.getKey());
+        os.writeLong(e.getValue().length);
+        os.writeLong(e.getValue().lastModified);
+        os.writeUTF(e.getValue().hash == null ? "" : e.getValue().hash);
+      }
+    }
+    if (temp instanceof FilePlugin.SIOFile && file instanceof FilePlugin.SIOFile) {
+      try (FileChannel channel = FileChannel.open(((FilePlugin.SIOFile) temp).toPath(), StandardOpenOption.WRITE)) {
+        channel.force(true);
+      }
+      try {
+        Files.move(((FilePlugin.SIOFile) temp).toPath(), ((FilePlugin.SIOFile) file).toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        return;
+      } catch (AtomicMoveNotSupportedException e) {
+        // Replace it the long way.
+      }
+    }
+    if (file.exists() && !file.delete()) {
+      throw new IOException("Could not replace manifest " + file.getPath());
+    }
+    if (!temp.rename(file)) {
+      throw new IOException("Could not write manifest " + file.getPath());
+    }
+  }
+
+  private static File temp(File file) throws IOException {
+    return file.parent().create(file.getName() + ".tmp");
+  }
+
+}
@@ -0,0 +1,307 @@
+package org.keeber.simpleio;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.keeber.simpleio.File.CopyOptions;
+import org.keeber.simpleio.File.GrabFilter;
+import org.keeber.simpleio.File.MoveFilter;
+
+/**
+ * <p>
+ * Incrementally mirrors a source directory to a target directory.
+ *
+ * <p>
+ * The state of the source after each sync is kept in a manifest file (relative path, size,
+ * modification time and optionally a content hash). The next sync lists the source, compares it to
+ * the manifest and only copies new or changed files - unchanged files are never looked at on the
+ * target, so the target work follows the number of changes rather than the size of the tree.
+ *
+ * <pre>
+ * <code>
+ * Mirror mirror = new Mirror(remote, local, File.resolve("/var/lib/mirror/drop.manifest")).setDeletes(true);
+ * CopyReport report = mirror.sync();
+ * </code>
+ * </pre>
+ *
+ * <p>
+ * The target is assumed to only be changed by the mirror. Each source/target pair needs its own
+ * manifest.
+ */
+public class Mirror {
+  private final File source;
+  private final File target;
+  private final File manifest;
+  private GrabFilter grab = File.filters.EVERYTHING;
+  private MoveFilter move = File.filters.ALL_DIRECTORIES;
+  private boolean deletes = false;
+  private String hash = null;
+  private CopyOptions options = new CopyOptions();
+
+  /**
+   *
+   * @param source directory.
+   * @param target directory.
+   * @param manifest file to keep the synced state in.
+   */
+  public Mirror(File source, File target, File manifest) {
+    this.source = source;
+    this.target = target;
+    this.manifest = manifest;
+  }
+
+  /**
+   * The files (and directories) to mirror - everything by default.
+   *
+   * @param grab
+   * @param move
+   * @return this mirror.
+   */
+  public Mirror setFilters(GrabFilter grab, MoveFilter move) {
+    this.grab = grab;
+    this.move = move;
+    return this;
+  }
+
+  /**
+   * Delete target files when their source is removed (default false).
+   *
+   * @param deletes
+   * @return this mirror.
+   */
+  public Mirror setDeletes(boolean deletes) {
+    this.deletes = deletes;
+    return this;
+  }
+
+  /**
+   * <p>
+   * Record a content hash for every copied file with the given MessageDigest algorithm (eg: "MD5")
+   * - null (the default) to only use size and modification time.
+   *
+   * <p>
+   * The hash is calculated while copying. When a file is touched without changing (a new
+   * modification time but the same size) the source is hashed and the copy is skipped if the
+   * content is the same.
+   *
+   * @param algorithm
+   * @return this mirror.
+   */
+  public Mirror setHash(String algorithm) {
+    this.hash = algorithm;
+    return this;
+  }
+
+  /**
+   * The options used for each copy (ignored for hashed copies which are always streamed).
+   *
+   * @param options
+   * @return this mirror.
+   */
+  public Mirror setOptions(CopyOptions options) {
+    this.options = options;
+    return this;
+  }
+
+  /**
+   * <p>
+   * Copy new and changed files (and delete removed ones when enabled).
+   *
+   * <p>
+   * The manifest is saved even when some copies fail (or the sync is interrupted) - after every
+   * task has ended, and only with the operations that completed: copies that did not happen are not
+   * recorded and deletes that did not happen keep their entry, so the rest are tried again by the
+   * next sync.
+   *
+   * @return the totals of the sync.
+   * @throws IOException the first failure (with the rest suppressed).
+   */
+  public synchronized CopyReport sync() throws IOException {
+    long start = System.currentTimeMillis();
+    if (hash != null) {
+      // Fail early on an unknown algorithm.
+      digest();
+    }
+    Map<String, Manifest.Entry> previous = Manifest.load(manifest).entries();
+    Manifest next = new Manifest();
+    String base = Transfers.directory(source.getPath());
+    List<File> files = new ArrayList<>();
+    List<String> paths = new ArrayList<>();
+    TreeSet<String> directories = new TreeSet<>();
+    Set<String> seen = new HashSet<>();
+    int unchanged = 0;
+    for (File file : source.list(grab, move)) {
+      FileAttributes attributes = file.getAttributes();
+      if (attributes.isDirectory()) {
+        continue;
+      }
+      String path = Transfers.relative(base, file);
+      seen.add(path);
+      Manifest.Entry entry = previous.get(path);
+      if (entry != null && entry.matches(attributes)) {
+        next.entries().put(path, entry);
+        unchanged++;
+      } else {
+        files.add(file);
+        paths.add(path);
+        Transfers.addParent(directories, path);
+      }
+    }
+    AtomicBoolean cancelled = new AtomicBoolean(false);
+    AtomicInteger copied = new AtomicInteger(), skipped = new AtomicInteger(unchanged), deleted = new AtomicInteger();
+    AtomicLong bytes = new AtomicLong();
+    List<CompletableFuture<Void>> tasks = new ArrayList<>();
+    boolean finished = false;
+    try {
+      Transfers.mkdirs(target, directories);
+      for (int i = 0; i < files.size(); i++) {
+        File from = files.get(i);
+        String path = paths.get(i);
+        tasks.add(Tasks.submit(() -> {
+          if (cancelled.get()) {
+            return null;
+          }
+          FileAttributes attributes = from.getAttributes();
+          Manifest.Entry entry = previous.get(path);
+          if (hash != null && entry != null && entry.hash != null && entry.length == attributes.length()) {
+            String content = hash(from);
+            if (content.equals(entry.hash)) {
+              next.entries().put(path, new Manifest.Entry(attributes.length(), attributes.getLastModified(), content));
+              skipped.incrementAndGet();
+              return null;
+            }
+          }
+          String content = copy(from, target.create(path));
+          next.entries().put(path, new Manifest.Entry(attributes.length(), attributes.getLastModified(), content));
+          copied.incrementAndGet();
+          bytes.addAndGet(attributes.length());
+          return null;
+        }, from, target));
+      }
+      if (deletes) {
+        for (Map.Entry<String, Manifest.Entry> removed : previous.entrySet()) {
+          String path = removed.getKey();
+          if (seen.contains(path)) {
+            continue;
+          }
+          tasks.add(Tasks.submit(() -> {
+            if (cancelled.get()) {
+              next.entries().put(path, removed.getValue());
+              return null;
+            }
+            try {
+              File file = target.create(path);
+              if (file.exists()) {
+                if (!file.delete()) {
+                  throw new IOException("Could not delete " + file.getPath());
+                }
+                deleted.incrementAndGet();
+              }
+              return null;
+            } catch (IOException | RuntimeException e) {
+              // Try again next time.
+              next.entries().put(path, removed.getValue());
+              throw e;
+            }
+          }, target));
+        }
+      }
+      Transfers.await(tasks, cancelled, source);
+      finished = true;
+    } finally {
+      if (!finished) {
+        cancelled.set(true);
+      }
+      // Saved with the interrupt cleared (an interrupt closes the channel it is written with).
+      boolean interrupted = settle(tasks);
+      try {
+        next.save(manifest);
+      } finally {
+        if (interrupted) {
+          Thread.currentThread().interrupt();
+        }
+      }
+    }
+    return new CopyReport(copied.get(), skipped.get(), directories.size(), bytes.get(), System.currentTimeMillis() - start, deleted.get());
+  }
+
+  /**
+   * Wait for every task to end (those not started yet end at once when cancelled) - so nothing is
+   * still changing the manifest, or the target, when the manifest is saved.
+   *
+   * @return true if the thread was interrupted (the interrupt is cleared).
+   */
+  private static boolean settle(List<CompletableFuture<Void>> tasks) {
+    boolean interrupted = Thread.interrupted();
+    for (CompletableFuture<Void> task : tasks) {
+      while (true) {
+        try {
+          task.get();
+          break;
+        } catch (InterruptedException e) {
+          interrupted = true;
+        } catch (ExecutionException | CancellationException e) {
+          // Reported by await (or not recorded).
+          break;
+        }
+      }
+    }
+    return interrupted;
+  }
+
+  private String copy(File from, File to) throws IOException {
+    if (hash == null) {
+      from.operations.copyTo(to, options);
+      return null;
+    }
+    MessageDigest digest = digest();
+    Streams.copy(new DigestInputStream(from.open(File.READ), digest), to.open(File.WRITE), true, Math.max(from.getBufferSize(), to.getBufferSize()));
+    return hex(digest.digest());
+  }
+
+  private String hash(File file) throws IOException {
+    MessageDigest digest = digest();
+    byte[] buffer = Streams.getBufferPool().acquire(file.getBufferSize());
+    try (InputStream is = file.open(File.READ)) {
+      int n;
+      while ((n = is.read(buffer)) != -1) {
+        digest.update(buffer, 0, n);
+      }
+    } finally {
+      Streams.getBufferPool().release(buffer);
+    }
+    return hex(digest.digest());
+  }
+
+  private MessageDigest digest() throws IOException {
+    try {
+      return MessageDigest.getInstance(hash);
+    } catch (NoSuchAlgorithmException e) {
+      throw new IOException(e);
+    }
+  }
+
+  private static String hex(byte[] bytes) {
+    StringBuilder s = new StringBuilder(bytes.length * 2);
+    for (byte b : bytes) {
+      s.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+    }
+    return s.toString();
+  }
+
+}
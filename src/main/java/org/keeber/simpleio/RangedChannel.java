@@ -0,0 +1,165 @@
+package org.keeber.simpleio;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.NonWritableChannelException;
+import java.nio.channels.SeekableByteChannel;
+
+/**
+ * <p>
+ * A read only {@link SeekableByteChannel} over a file that can be read from any position.
+ *
+ * <p>
+ * Small reads are served from a read-ahead buffer (filled with a single ranged read) so reading a
+ * trailer or index does not cost a request per call - reads larger than the read-ahead go straight
+ * to the file.
+ */
+public abstract class RangedChannel implements SeekableByteChannel {
+  private final long size;
+  private final byte[] ahead;
+  private long aheadPosition = 0;
+  private int aheadLength = 0;
+  private long position = 0;
+  private boolean open = true;
+
+  /**
+   *
+   * @param size of the file.
+   * @param readAhead the number of bytes read ahead (0 to disable).
+   */
+  protected RangedChannel(long size, int readAhead) {
+    this.size = size;
+    this.ahead = new byte[Math.max(0, readAhead)];
+  }
+
+  /**
+   * Read bytes from the given position of the file.
+   *
+   * @param position
+   * @param b
+   * @param off
+   * @param len
+   * @return the number of bytes read or -1 at the end of the file.
+   * @throws IOException
+   */
+  protected abstract int read(long position, byte[] b, int off, int len) throws IOException;
+
+  /**
+   * Release the underlying resources.
+   *
+   * @throws IOException
+   */
+  protected abstract void release() throws IOException;
+
+  @Override
+  public int read(ByteBuffer dst) throws IOException {
+    ensureOpen();
+    if (position >= size) {
+      return -1;
+    }
+    int len = (int) Math.min(dst.remaining(), size - position);
+    if (len == 0) {
+      return 0;
+    }
+    if (position < aheadPosition || position >= aheadPosition + aheadLength) {
+      if (len >= ahead.length) {
+        return direct(dst, len);
+      }
+      fill();
+      if (aheadLength == 0) {
+        return -1;
+      }
+    }
+    int offset = (int) (position - aheadPosition);
+    int n = Math.min(len, aheadLength - offset);
+    dst.put(ahead, offset, n);
+    position += n;
+    return n;
+  }
+
+  private int direct(ByteBuffer dst, int len) throws IOException {
+    int n;
+    if (dst.hasArray()) {
+      n = read(position, dst.array(), dst.arrayOffset() + dst.position(), len);
+      if (n > 0) {
+        dst.position(dst.position() + n);
+      }
+    } else {
+      byte[] b = new byte[Math.min(len, Streams.getBufferSize())];
+      n = read(position, b, 0, b.length);
+      if (n > 0) {
+        dst.put(b, 0, n);
+      }
+    }
+    if (n > 0) {
+      position += n;
+    }
+    return n;
+  }
+
+  private void fill() throws IOException {
+    aheadPosition = position;
+    aheadLength = 0;
+    int len = (int) Math.min(ahead.length, size - position);
+    while (aheadLength < len) {
+      int n = read(position + aheadLength, ahead, aheadLength, len - aheadLength);
+      if (n < 0) {
+        break;
+      }
+      aheadLength += n;
+    }
+  }
+
+  @Override
+  public int write(ByteBuffer src) throws IOException {
+    throw new NonWritableChannelException();
+  }
+
+  @Override
+  public long position() throws IOException {
+    ensureOpen();
+    return position;
+  }
+
+  @Override
+  public SeekableByteChannel position(long newPosition) throws IOException {
+    ensureOpen();
+    if (newPosition < 0) {
+      throw new IllegalArgumentException("Negative position.");
+    }
+    this.position = newPosition;
+    return this;
+  }
+
+  @Override
+  public long size() throws IOException {
+    ensureOpen();
+    return size;
+  }
+
+  @Override
+  public SeekableByteChannel truncate(long size) throws IOException {
+    throw new NonWritableChannelException();
+  }
+
+  @Override
+  public boolean isOpen() {
+    return open;
+  }
+
+  @Override
+  public void close() throws IOException {
+    if (open) {
+      open = false;
+      release();
+    }
+  }
+
+  private void ensureOpen() throws IOException {
+    if (!open) {
+      throw new ClosedChannelException();
+    }
+  }
+
+}
@@ -0,0 +1,55 @@
+package org.keeber.simpleio;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * A {@link RangedChannel} built on the ranged reads of a file (eg: FTP REST or an SFTP offset get).
+ * The stream is kept while reads move forward and reopened at the new offset when they jump back
+ * (or too far ahead to skip).
+ */
+class StreamChannel extends RangedChannel {
+  private final File file;
+  private final long skipLimit;
+  private InputStream stream;
+  private long streamPosition;
+
+  StreamChannel(File file, long size, int readAhead) {
+    super(size, readAhead);
+    this.file = file;
+    this.skipLimit = Math.max(readAhead, Streams.getBufferSize());
+  }
+
+  @Override
+  protected int read(long position, byte[] b, int off, int len) throws IOException {
+    if (stream != null && position >= streamPosition && position - streamPosition <= skipLimit) {
+      while (streamPosition < position) {
+        long n = stream.skip(position - streamPosition);
+        if (n <= 0) {
+          break;
+        }
+        streamPosition += n;
+      }
+    }
+    if (stream == null || streamPosition != position) {
+      release();
+      stream = file.read(position);
+      streamPosition = position;
+    }
+    int n = stream.read(b, off, len);
+    if (n > 0) {
+      streamPosition += n;
+    }
+    return n;
+  }
+
+  @Override
+  protected void release() throws IOException {
+    if (stream != null) {
+      InputStream is = stream;
+      stream = null;
+      is.close();
+    }
+  }
+
+}
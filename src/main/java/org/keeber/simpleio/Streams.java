@@ -7,6 +7,11 @@ import java.io.FilterOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * <p>
@@ -18,12 +23,89 @@ import java.io.OutputStream;
  */
 public class Streams {
 
+	private static volatile BufferPool buffers = new BufferPool(32);
+	private static volatile int bufferSize = 1024 * 64;
+
+	/**
+	 * The pool that copy buffers are taken from (and returned to).
+	 * 
+	 * @param pool
+	 */
+	public static void setBufferPool(BufferPool pool) {
+		buffers = pool;
+	}
+
+	public static BufferPool getBufferPool() {
+		return buffers;
+	}
+
+	/**
+	 * The buffer size used when copying without a size (default 64k).
+	 * 
+	 * @param size
+	 */
+	public static void setBufferSize(int size) {
+		bufferSize = size;
+	}
+
+	public static int getBufferSize() {
+		return bufferSize;
+	}
+
 	public static byte[] asByteArray(InputStream is) throws IOException {
 		ByteArrayOutputStream bos = new ByteArrayOutputStream();
 		copy(is, bos, true);
 		return bos.toByteArray();
 	}
 
+	/**
+	 * <p>
+	 * Reads the stream into an array presized to the expected length (when
+	 * the length is known) - avoiding the growing and the final copy of a
+	 * ByteArrayOutputStream.
+	 * 
+	 * <p>
+	 * The content is still read correctly if the length turns out to be
+	 * wrong.
+	 * 
+	 * @param is
+	 * @param length
+	 *            the expected length (zero or less if unknown).
+	 * @return
+	 * @throws IOException
+	 */
+	public static byte[] asByteArray(InputStream is, long length)
+			throws IOException {
+		if (length <= 0 || length > Integer.MAX_VALUE - 8) {
+			return asByteArray(is);
+		}
+		try {
+			byte[] content = new byte[(int) length];
+			int n = 0;
+			int len;
+			while (n < content.length
+					&& (len = is.read(content, n, content.length - n)) > 0) {
+				n += len;
+			}
+			if (n < content.length) {
+				return Arrays.copyOf(content, n);
+			}
+			int b = is.read();
+			if (b == -1) {
+				return content;
+			}
+			// It grew since the length was read.
+			ByteArrayOutputStream bos = new ByteArrayOutputStream(
+					content.length + bufferSize);
+			bos.write(content);
+			bos.write(b);
+			copy(is, bos, false);
+			return bos.toByteArray();
+		} finally {
+			Streams.close(is);
+		}
+	}
+
 	public static String asString(InputStream is) throws IOException {
 		ByteArrayOutputStream bos = new ByteArrayOutputStream();
 		copy(is, bos, true);
@@ -38,15 +120,84 @@ public class Streams {
 
 	public static void copy(InputStream is, OutputStream os, boolean close)
 			throws IOException {
-		byte[] buffer = new byte[1024 * 8];
-		int len;
-		while ((len = is.read(buffer)) > 0) {
-			os.write(buffer, 0, len);
+		copy(is, os, close, bufferSize);
+	}
+
+	/**
+	 * Copy using a (pooled) buffer of the given size.
+	 * 
+	 * @param is
+	 * @param os
+	 * @param close
+	 * @param size
+	 * @throws IOException
+	 */
+	public static void copy(InputStream is, OutputStream os, boolean close,
+			int size) throws IOException {
+		BufferPool pool = buffers;
+		byte[] buffer = pool.acquire(size);
+		try {
+			int len;
+			while ((len = is.read(buffer)) > 0) {
+				os.write(buffer, 0, len);
+			}
+			os.flush();
+		} finally {
+			pool.release(buffer);
 		}
-		os.flush();
 		if (close) {
 			Streams.close(is);
-			Streams.close(os);
+			// A write that fails to complete on close is reported.
+			os.close();
+		}
+	}
+
+	/**
+	 * <p>
+	 * A pool of reusable byte buffers. Buffers are pooled by size (rounded up
+	 * to a power of two) and only a limited number of each size are kept.
+	 * 
+	 * <p>
+	 * A buffer must not be used after it has been released.
+	 */
+	public static class BufferPool {
+		private static final int LARGEST = 1 << 30;
+		private final int retain;
+		private final Map<Integer, Queue<byte[]>> pools = new ConcurrentHashMap<Integer, Queue<byte[]>>();
+
+		/**
+		 * @param retain
+		 *            the number of buffers of each size kept for reuse.
+		 */
+		public BufferPool(int retain) {
+			this.retain = retain;
+		}
+
+		public byte[] acquire(int size) {
+			if (size > LARGEST) {
+				// Beyond the largest pooled size - never pooled.
+				return new byte[size];
+			}
+			int rounded = round(size);
+			Queue<byte[]> pool = pools.get(rounded);
+			byte[] buffer = (pool == null) ? null : pool.poll();
+			return (buffer == null) ? new byte[rounded] : buffer;
+		}
+
+		public void release(byte[] buffer) {
+			if (retain < 1 || buffer.length != round(buffer.length)) {
+				return;
+			}
+			pools.computeIfAbsent(buffer.length,
+					(k) -> new ArrayBlockingQueue<byte[]>(retain)).offer(buffer);
+		}
+
+		private static int round(int size) {
+			if (size <= 1024) {
+				return 1024;
+			}
+			int rounded = Integer.highestOneBit(size);
+			return (rounded == size || rounded >= LARGEST) ? rounded : rounded << 1;
 		}
 	}
 
@@ -0,0 +1,189 @@
+package org.keeber.simpleio;
+
+import java.io.IOException;
+import java.net.URI;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * <p>
+ * Runs the asynchronous file operations.
+ *
+ * <p>
+ * Each operation first waits (without holding a thread) for a place at the hosts it touches - the
+ * number of places for a host is the concurrency of its plugin, so queueing thousands of operations
+ * does not open thousands of connections. Places are taken in host order so operations touching two
+ * hosts (copies) cannot deadlock.
+ */
+final class Tasks {
+  private static final Logger logger = Logger.getLogger(Tasks.class.getName());
+  private static volatile Executor executor;
+
+  private Tasks() {
+
+  }
+
+  /**
+   * An operation that can fail with an IOException.
+   */
+  interface Call<T> {
+
+    T call() throws IOException;
+
+  }
+
+  static void setExecutor(Executor executor) {
+    Tasks.executor = executor;
+  }
+
+  static Executor getExecutor() {
+    Executor executor = Tasks.executor;
+    if (executor == null) {
+      synchronized (Tasks.class) {
+        if (Tasks.executor == null) {
+          Tasks.executor = createExecutor();
+        }
+        executor = Tasks.executor;
+      }
+    }
+    return executor;
+  }
+
+  /**
+   * A virtual thread per task where the JDK has them (looked up reflectively so we still run on
+   * Java 8) - otherwise a fixed pool of daemon threads.
+   */
+  private static Executor createExecutor() {
+    try {
+      return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+    } catch (ReflectiveOperationException | RuntimeException e) {
+      logger.log(Level.FINE, "[Tasks] Virtual threads unavailable - using a thread pool.");
+    }
+    AtomicInteger count = new AtomicInteger();
+    return Executors.newFixedThreadPool(Math.max(16, Runtime.getRuntime().availableProcessors() * 4), (r) -> {
+      Thread thread = new Thread(r, "File-async-" + count.incrementAndGet());
+      thread.setDaemon(true);
+      return thread;
+    });
+  }
+
+  /**
+   * Run the call once there is a place at the host of every given file.
+   *
+   * @param call
+   * @param files
+   * @return
+   */
+  static <T> CompletableFuture<T> submit(Call<T> call, File... files) {
+    CompletableFuture<T> future = new CompletableFuture<>();
+    List<Gate> gates;
+    try {
+      gates = gates(files);
+    } catch (RuntimeException e) {
+      future.completeExceptionally(e);
+      return future;
+    }
+    admit(gates, 0, () -> {
+      try {
+        getExecutor().execute(() -> {
+          try {
+            future.complete(call.call());
+          } catch (Throwable e) {
+            future.completeExceptionally(e);
+          } finally {
+            leave(gates);
+          }
+        });
+      } catch (RuntimeException e) {
+        leave(gates);
+        future.completeExceptionally(e);
+      }
+    });
+    return future;
+  }
+
+  private static List<Gate> gates(File... files) {
+    Map<String, Gate> gates = new TreeMap<>();
+    for (File file : files) {
+      File.Plugin plugin = file.getPlugin();
+      if (plugin != null) {
+        URI uri = file.getURI();
+        String host = key(uri);
+        if (!gates.containsKey(host)) {
+          gates.put(host, plugin.getGate(host));
+        }
+      }
+    }
+    return new ArrayList<>(gates.values());
+  }
+
+  /**
+   * Operations are limited per scheme, host and port.
+   */
+  static String key(URI uri) {
+    return uri.getScheme() + "://" + (uri.getHost() == null ? "" : uri.getHost()) + ":" + uri.getPort();
+  }
+
+  private static void admit(List<Gate> gates, int index, Runnable admitted) {
+    if (index == gates.size()) {
+      admitted.run();
+    } else {
+      gates.get(index).enter(() -> admit(gates, index + 1, admitted));
+    }
+  }
+
+  private static void leave(List<Gate> gates) {
+    for (Gate gate : gates) {
+      gate.leave();
+    }
+  }
+
+  /**
+   * A fixed number of places - operations waiting for a place are queued rather than blocked.
+   */
+  static final class Gate {
+    private final int places;
+    private int used = 0;
+    private final ArrayDeque<Runnable> waiting = new ArrayDeque<>();
+
+    Gate(int places) {
+      this.places = Math.max(1, places);
+    }
+
+    void enter(Runnable admitted) {
+      synchronized (this) {
+        if (used == places) {
+          waiting.add(admitted);
+          return;
+        }
+        used++;
+      }
+      admitted.run();
+    }
+
+    void leave() {
+      Runnable next;
+      synchronized (this) {
+        next = waiting.poll();
+        if (next == null) {
+          used--;
+          return;
+        }
+      }
+      // The place passes straight to the next operation.
+      next.run();
+    }
+
+  }
+
+}
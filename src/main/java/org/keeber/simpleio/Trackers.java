@@ -0,0 +1,530 @@
+package org.keeber.simpleio;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.ToLongFunction;
+
+/**
+ * <p>
+ * The settle state of every file a {@link Hotfolder} is tracking, held in parallel primitive arrays
+ * (an open addressed hash table) keyed by a 64 bit hash of the file path - no File objects (and the
+ * plugin state they hold) are kept between scans.
+ *
+ * <p>
+ * Each slot costs 29 bytes and the table is kept at most 3/4 full (a million tracked files take
+ * around 39MB). Files that have not been dispatched can also keep a path (in a side map) so they can
+ * be checked again without a listing.
+ *
+ * <p>
+ * Each slot also keeps an independent 32 bit check hash of its path. A path whose key is taken by a
+ * different check is given the next free key of a fixed sequence derived from its hash (see
+ * {@link #key(String)}) - so the same path always resolves to the same tracker, even after a
+ * restart, without the paths being kept. Two paths are only tracked as one if both hashes collide
+ * (around 1 in 10^16 among a million tracked paths).
+ *
+ * <p>
+ * Every change is recorded in the {@link Journal} when there is one, and a file the journal has
+ * already processed starts out dispatched.
+ *
+ * <p>
+ * All methods are synchronized - the scan and dispatch threads share the state.
+ */
+final class Trackers {
+  private static final int LAUNCHED = 1 << 30;
+  private static final int FRESH = 1 << 29;
+  private static final int DURATION = FRESH - 1;
+  private static final long EMPTY = 0;
+
+  // The candidate keys tried for a path before any free one is taken.
+  private static final int CANDIDATES = 4;
+
+  private final ToLongFunction<String> hash;
+  private long[] keys;
+  private int[] checks;
+  // The size and modification time are only compared, so a fingerprint of the two is enough.
+  private int[] prints;
+  private int[] states;
+  // Only compared with the current scan (every scan sweeps what it did not see).
+  private byte[] generations;
+  // When the file was first seen (for the metrics).
+  private long[] seens;
+  private final Map<Long, String> paths = new HashMap<>();
+  private int size = 0;
+  // The files not yet dispatched (kept as states change so reading it is cheap).
+  private int pending = 0;
+  private int generation = 0;
+  private Journal journal;
+
+  Trackers() {
+    this(Trackers::hash);
+  }
+
+  /**
+   * @param hash the path hash (replaced to force collisions).
+   */
+  Trackers(ToLongFunction<String> hash) {
+    this.hash = hash;
+    allocate(64);
+  }
+
+  synchronized void setJournal(Journal journal) {
+    this.journal = journal;
+  }
+
+  /**
+   * A 64 bit hash of a path (zero is reserved for empty slots).
+   *
+   * @param path
+   * @return
+   */
+  static long hash(String path) {
+    long h = 0xcbf29ce484222325L;
+    for (int i = 0; i < path.length(); i++) {
+      h ^= path.charAt(i);
+      h *= 0x100000001b3L;
+    }
+    h = mix(h);
+    return h == EMPTY ? 1 : h;
+  }
+
+  /**
+   * The check hash of a path - independent of {@link #hash(String)} (zero is left for unknown).
+   */
+  private static int check(String path) {
+    int h = 0x811c9dc5;
+    for (int i = path.length() - 1; i >= 0; i--) {
+      h ^= path.charAt(i);
+      h *= 0x01000193;
+    }
+    h ^= h >>> 16;
+    h *= 0x85ebca6b;
+    h ^= h >>> 13;
+    return h == 0 ? 1 : h;
+  }
+
+  /**
+   * The tracker key of a path - its hash unless a different path holds that key.
+   *
+   * <p>
+   * The candidates are the hash and the keys derived from it in turn. The first candidate holding
+   * this path's check is its key, otherwise the first free one (the first few candidates are all
+   * looked at first - a path whose earlier candidate has been freed keeps its key).
+   *
+   * @param path
+   * @return
+   */
+  synchronized long key(String path) {
+    int check = check(path);
+    long key = hash.applyAsLong(path);
+    long free = EMPTY;
+    for (int n = 0; ; n++) {
+      int i = slot(key);
+      if (keys[i] == EMPTY) {
+        if (free == EMPTY) {
+          free = key;
+        }
+        if (n >= CANDIDATES - 1) {
+          return free;
+        }
+      } else if (checks[i] == check) {
+        return key;
+      }
+      key = mix(key + 0x9e3779b97f4a7c15L);
+      key = key == EMPTY ? 1 : key;
+    }
+  }
+
+  private static long mix(long h) {
+    h ^= h >>> 33;
+    h *= 0xff51afd7ed558ccdL;
+    h ^= h >>> 33;
+    h *= 0xc4ceb9fe1a85ec53L;
+    h ^= h >>> 33;
+    return h;
+  }
+
+  private static int print(long size, long lastmod) {
+    return (int) mix(size * 31 + mix(lastmod));
+  }
+
+  /**
+   * The check and print as the journal keeps them.
+   */
+  private static long stamp(int check, int print) {
+    return ((long) check << 32) | (print & 0xffffffffL);
+  }
+
+  private void allocate(int capacity) {
+    keys = new long[capacity];
+    checks = new int[capacity];
+    prints = new int[capacity];
+    states = new int[capacity];
+    generations = new byte[capacity];
+    seens = new long[capacity];
+  }
+
+  private int slot(long key) {
+    int mask = keys.length - 1;
+    int i = (int) (key ^ (key >>> 32)) & mask;
+    while (keys[i] != EMPTY && keys[i] != key) {
+      i = (i + 1) & mask;
+    }
+    return i;
+  }
+
+  private void record(byte type, int i) {
+    if (journal != null) {
+      journal.record(type, keys[i], stamp(checks[i], prints[i]), states[i], paths.get(keys[i]));
+    }
+  }
+
+  /**
+   * @return true if the journal says the file was dispatched (it is tracked as dispatched).
+   */
+  private boolean processed(long key, int check, int print) {
+    if (journal != null && journal.processed(key, stamp(check, print))) {
+      insert(key, check, print, LAUNCHED, null);
+      return true;
+    }
+    return false;
+  }
+
+  private int insert(long key, int check, int print, int state, String path) {
+    if ((size + 1) * 4 > keys.length * 3) {
+      resize(keys.length * 2);
+    }
+    int i = slot(key);
+    keys[i] = key;
+    checks[i] = check;
+    prints[i] = print;
+    states[i] = state;
+    generations[i] = (byte) generation;
+    seens[i] = System.currentTimeMillis();
+    if (path != null) {
+      paths.put(key, path);
+    }
+    size++;
+    if ((state & LAUNCHED) == 0) {
+      pending++;
+    }
+    return i;
+  }
+
+  private void resize(int capacity) {
+    long[] oldKeys = keys, oldSeens = seens;
+    int[] oldChecks = checks, oldPrints = prints, oldStates = states;
+    byte[] oldGenerations = generations;
+    allocate(capacity);
+    for (int j = 0; j < oldKeys.length; j++) {
+      if (oldKeys[j] != EMPTY) {
+        int i = slot(oldKeys[j]);
+        keys[i] = oldKeys[j];
+        checks[i] = oldChecks[j];
+        prints[i] = oldPrints[j];
+        states[i] = oldStates[j];
+        generations[i] = oldGenerations[j];
+        seens[i] = oldSeens[j];
+      }
+    }
+  }
+
+  private void launched(int i) {
+    if ((states[i] & LAUNCHED) == 0) {
+      states[i] |= LAUNCHED;
+      pending--;
+    }
+  }
+
+  private void cleared(int i) {
+    if ((states[i] & LAUNCHED) != 0) {
+      states[i] &= ~LAUNCHED;
+      pending++;
+    }
+  }
+
+  /**
+   * Remove the slot and shift back the entries probed past it (so lookups never stop early).
+   */
+  private void delete(int i) {
+    if ((states[i] & LAUNCHED) == 0) {
+      pending--;
+    }
+    paths.remove(keys[i]);
+    int mask = keys.length - 1;
+    int j = i;
+    while (true) {
+      j = (j + 1) & mask;
+      if (keys[j] == EMPTY) {
+        break;
+      }
+      int home = (int) (keys[j] ^ (keys[j] >>> 32)) & mask;
+      // Move j back to i unless its home lies cyclically in (i, j].
+      if ((j > i && (home <= i || home > j)) || (j < i && (home <= i && home > j))) {
+        keys[i] = keys[j];
+        checks[i] = checks[j];
+        prints[i] = prints[j];
+        states[i] = states[j];
+        generations[i] = generations[j];
+        seens[i] = seens[j];
+        i = j;
+      }
+    }
+    keys[i] = EMPTY;
+    size--;
+  }
+
+  /**
+   * Start a new full scan - files not seen by {@link #check} before the {@link #sweep()} are
+   * dropped.
+   */
+  synchronized void scan() {
+    generation++;
+  }
+
+  /**
+   * Check a listed file - a new file starts tracking at zero and a known file counts another check if
+   * it is unchanged (a changed file keeps its count and only takes the new size and time).
+   *
+   * @param file the full path of the file (its key is {@link #key(String)}).
+   * @param size
+   * @param lastmod
+   * @param path kept until the file is dispatched (null keeps any path already held).
+   * @return the number of unchanged checks or -1 if the file has been dispatched (or the journal
+   *         says it was).
+   */
+  synchronized int check(String file, long size, long lastmod, String path) {
+    int print = print(size, lastmod);
+    long key = key(file);
+    int i = slot(key);
+    if (keys[i] == EMPTY) {
+      if (processed(key, check(file), print)) {
+        return -1;
+      }
+      record(Journal.TRACK, insert(key, check(file), print, 0, path));
+      return 0;
+    }
+    generations[i] = (byte) generation;
+    int state = states[i];
+    if ((state & LAUNCHED) != 0) {
+      return -1;
+    }
+    int duration = state & DURATION;
+    if (prints[i] == print) {
+      duration = Math.min(duration + 1, DURATION);
+    } else {
+      prints[i] = print;
+    }
+    states[i] = duration;
+    if (path != null) {
+      paths.put(key, path);
+    }
+    record(Journal.TRACK, i);
+    return duration;
+  }
+
+  /**
+   * Start tracking a file found between scans (it is first checked on the next pass).
+   *
+   * @param file the full path of the file (its key is {@link #key(String)}).
+   * @return false if the file was already tracked.
+   */
+  synchronized boolean track(String file, long size, long lastmod, String path) {
+    int print = print(size, lastmod);
+    long key = key(file);
+    if (keys[slot(key)] != EMPTY || processed(key, check(file), print)) {
+      return false;
+    }
+    record(Journal.TRACK, insert(key, check(file), print, FRESH, path));
+    return true;
+  }
+
+  /**
+   * @return when the file was first seen (0 if it is not tracked).
+   */
+  synchronized long seen(long key) {
+    int i = slot(key);
+    return keys[i] == EMPTY ? 0 : seens[i];
+  }
+
+  synchronized boolean contains(long key) {
+    return keys[slot(key)] != EMPTY;
+  }
+
+  /**
+   * The file has been handed to the subscriber (its path is no longer needed).
+   *
+   * @return when the file was first seen (0 if it is not tracked).
+   */
+  synchronized long launch(long key) {
+    int i = slot(key);
+    if (keys[i] == EMPTY) {
+      return 0;
+    }
+    launched(i);
+    paths.remove(key);
+    record(Journal.LAUNCH, i);
+    return seens[i];
+  }
+
+  /**
+   * Offer the file again once it is settled.
+   */
+  synchronized void clear(long key) {
+    int i = slot(key);
+    if (keys[i] != EMPTY) {
+      cleared(i);
+      record(Journal.CLEAR, i);
+    }
+  }
+
+  synchronized void remove(long key) {
+    int i = slot(key);
+    if (keys[i] != EMPTY) {
+      record(Journal.REMOVE, i);
+      delete(i);
+    }
+  }
+
+  /**
+   * Apply a journal record (while replaying - nothing is recorded).
+   */
+  synchronized void apply(Journal.Record record) {
+    int i = slot(record.key);
+    if (keys[i] == EMPTY) {
+      if (record.type == Journal.TRACK || record.type == Journal.LAUNCH) {
+        insert(record.key, (int) (record.print >>> 32), (int) record.print, record.type == Journal.LAUNCH ? LAUNCHED : record.state, record.path);
+      }
+      return;
+    }
+    switch (record.type) {
+      case Journal.TRACK:
+        prints[i] = (int) record.print;
+        if ((record.state & LAUNCHED) == 0) {
+          cleared(i);
+        } else {
+          launched(i);
+        }
+        states[i] = record.state;
+        if (record.path == null) {
+          paths.remove(record.key);
+        } else {
+          paths.put(record.key, record.path);
+        }
+        break;
+      case Journal.LAUNCH:
+        launched(i);
+        paths.remove(record.key);
+        break;
+      case Journal.CLEAR:
+        cleared(i);
+        break;
+      case Journal.REMOVE:
+        delete(i);
+        break;
+      default:
+        break;
+    }
+  }
+
+  /**
+   * Rewrite the journal from the current state - the dispatched files go to its index and the files
+   * still settling start its new log.
+   */
+  synchronized void compact() throws IOException {
+    if (journal == null) {
+      return;
+    }
+    long[] processed = new long[size];
+    int count = 0;
+    List<Journal.Record> settling = new ArrayList<>();
+    for (int i = 0; i < keys.length; i++) {
+      if (keys[i] == EMPTY) {
+        continue;
+      }
+      if ((states[i] & LAUNCHED) != 0) {
+        processed[count++] = Journal.identity(keys[i], stamp(checks[i], prints[i]));
+      } else {
+        settling.add(new Journal.Record(Journal.TRACK, keys[i], stamp(checks[i], prints[i]), states[i], paths.get(keys[i])));
+      }
+    }
+    journal.compact(Arrays.copyOf(processed, count), settling);
+  }
+
+  /**
+   * Drop the files the last full scan did not see.
+   */
+  synchronized void sweep() {
+    // Collected first - deleting shifts entries (possibly back past the start of the table).
+    long[] stale = new long[16];
+    int count = 0;
+    for (int i = 0; i < keys.length; i++) {
+      if (keys[i] != EMPTY && generations[i] != (byte) generation) {
+        if (count == stale.length) {
+          stale = Arrays.copyOf(stale, count * 2);
+        }
+        stale[count++] = keys[i];
+      }
+    }
+    for (int i = 0; i < count; i++) {
+      remove(stale[i]);
+    }
+  }
+
+  /**
+   * The files still settling (with a path) - new ones are only marked as seen.
+   *
+   * @return the keys and paths of the files to check.
+   */
+  synchronized List<Pending> pending() {
+    List<Pending> pending = new ArrayList<>();
+    for (Map.Entry<Long, String> entry : paths.entrySet()) {
+      int i = slot(entry.getKey());
+      if ((states[i] & LAUNCHED) == 0) {
+        boolean fresh = (states[i] & FRESH) != 0;
+        states[i] &= ~FRESH;
+        pending.add(new Pending(entry.getKey(), entry.getValue(), fresh));
+      }
+    }
+    return pending;
+  }
+
+  synchronized boolean hasPending() {
+    return pending > 0;
+  }
+
+  /**
+   * @return the number of files not yet dispatched.
+   */
+  synchronized int pendingCount() {
+    return pending;
+  }
+
+  synchronized int size() {
+    return size;
+  }
+
+  synchronized void clear() {
+    Arrays.fill(keys, EMPTY);
+    paths.clear();
+    size = 0;
+    pending = 0;
+  }
+
+  static final class Pending {
+    final long key;
+    final String path;
+    final boolean fresh;
+
+    Pending(long key, String path, boolean fresh) {
+      this.key = key;
+      this.path = path;
+      this.fresh = fresh;
+    }
+
+  }
+
+}
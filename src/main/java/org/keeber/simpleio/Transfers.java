@@ -0,0 +1,467 @@
+package org.keeber.simpleio;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.keeber.simpleio.plugin.FilePlugin;
+
+/**
+ * The copy strategies behind {@link File.Operations} that need more than a single stream.
+ */
+final class Transfers {
+  private static final Logger logger = Logger.getLogger(Transfers.class.getName());
+
+  /**
+   * Segments are never smaller than this.
+   */
+  static final long MIN_SEGMENT = 8L * 1024 * 1024;
+
+  /**
+   * Retry delays stop doubling here.
+   */
+  static final long MAX_RETRY_DELAY = TimeUnit.SECONDS.toMillis(30);
+
+  private Transfers() {
+
+  }
+
+  /**
+   * The number of segments worth using for a file of the given length.
+   */
+  static int segments(long length, int segments) {
+    return (int) Math.max(1, Math.min(segments, length / MIN_SEGMENT));
+  }
+
+  /**
+   * Download the source in byte ranges fetched concurrently (each over its own connection) and
+   * written into the local target with positional writes.
+   * 
+   * @param src
+   * @param dst
+   * @param segments
+   * @param bufferSize
+   * @throws IOException
+   */
+  static void segmented(File src, FilePlugin.SIOFile dst, int segments, int bufferSize) throws IOException {
+    long length = src.length();
+    long size = (length + segments - 1) / segments;
+    try (FileChannel channel = FileChannel.open(dst.toPath(), StandardOpenOption.WRITE, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING)) {
+      Segmented copy = new Segmented(src, channel, bufferSize);
+      for (long start = 0; start < length; start += size) {
+        copy.add(start, Math.min(size, length - start));
+      }
+      copy.run();
+    }
+  }
+
+  /**
+   * <p>
+   * The segments of one copy. Every segment after the first is submitted as an asynchronous task -
+   * so it runs on the shared executor once there is a place at the source host (see
+   * {@link Tasks}). The caller copies the first segment and then any segment no task has started,
+   * so the copy still finishes when the host has no place to spare (even when the caller holds the
+   * last one).
+   * 
+   * <p>
+   * When a segment fails the others stop at their next read and close their streams (which
+   * discards a connection left part way through a transfer).
+   */
+  private static final class Segmented {
+    private final File src;
+    private final FileChannel channel;
+    private final int bufferSize;
+    private final List<Segment> segments = new ArrayList<>();
+    private final AtomicReference<IOException> failure = new AtomicReference<>();
+
+    private Segmented(File src, FileChannel channel, int bufferSize) {
+      this.src = src;
+      this.channel = channel;
+      this.bufferSize = bufferSize;
+    }
+
+    private void add(long offset, long count) {
+      segments.add(new Segment(offset, count));
+    }
+
+    private void run() throws IOException {
+      for (int i = 1; i < segments.size(); i++) {
+        Segment segment = segments.get(i);
+        Tasks.submit(() -> {
+          copy(segment);
+          return null;
+        }, src);
+      }
+      for (Segment segment : segments) {
+        copy(segment);
+      }
+      boolean interrupted = false;
+      for (Segment segment : segments) {
+        while (true) {
+          try {
+            segment.done.await();
+            break;
+          } catch (InterruptedException e) {
+            interrupted = true;
+            fail(new InterruptedIOException("Interrupted during segmented copy of " + src.getPath()));
+          }
+        }
+      }
+      if (interrupted) {
+        Thread.currentThread().interrupt();
+      }
+      if (failure.get() != null) {
+        throw failure.get();
+      }
+    }
+
+    private void fail(IOException e) {
+      failure.compareAndSet(null, e);
+    }
+
+    /**
+     * Copy the segment here unless it has already been started elsewhere.
+     */
+    private void copy(Segment segment) {
+      if (!segment.started.compareAndSet(false, true)) {
+        return;
+      }
+      try {
+        if (failure.get() == null) {
+          transfer(segment);
+        }
+      } catch (IOException e) {
+        fail(e);
+      } catch (RuntimeException e) {
+        fail(new IOException(e));
+      } finally {
+        segment.done.countDown();
+      }
+    }
+
+    private void transfer(Segment segment) throws IOException {
+      Streams.BufferPool pool = Streams.getBufferPool();
+      byte[] buffer = pool.acquire(bufferSize);
+      try (InputStream is = src.read(segment.offset)) {
+        long position = segment.offset;
+        long remaining = segment.count;
+        while (remaining > 0) {
+          if (failure.get() != null) {
+            // Another segment failed - closing the stream part way discards its connection.
+            return;
+          }
+          int len = is.read(buffer, 0, (int) Math.min(buffer.length, remaining));
+          if (len < 0) {
+            throw new EOFException("Unexpected end of " + src.getPath() + " at " + position);
+          }
+          ByteBuffer bb = ByteBuffer.wrap(buffer, 0, len);
+          while (bb.hasRemaining()) {
+            position += channel.write(bb, position);
+          }
+          remaining -= len;
+        }
+      } finally {
+        pool.release(buffer);
+      }
+    }
+
+  }
+
+  private static final class Segment {
+    private final long offset;
+    private final long count;
+    private final AtomicBoolean started = new AtomicBoolean(false);
+    private final CountDownLatch done = new CountDownLatch(1);
+
+    private Segment(long offset, long count) {
+      this.offset = offset;
+      this.count = count;
+    }
+
+  }
+
+  /**
+   * <p>
+   * Copy continuing from the length of the target, retrying failures (with a bounded exponential
+   * backoff) from wherever the last attempt got to.
+   * 
+   * <p>
+   * The target length is the checkpoint - it is re-read before every attempt. The source
+   * attributes are recorded at the start, if they change between attempts the copy restarts from
+   * zero.
+   * 
+   * @param src
+   * @param dst
+   * @param options
+   * @param bufferSize
+   * @throws IOException
+   */
+  static void resumable(File src, File dst, File.CopyOptions options, int bufferSize) throws IOException {
+    FileAttributes origin = src.refresh().getAttributes();
+    boolean restart = false;
+    long delay = options.getRetryDelay();
+    for (int attempt = 0;; attempt++) {
+      try {
+        FileAttributes target = dst.refresh().getAttributes();
+        long offset = (restart || !target.exists()) ? 0 : target.length();
+        if (offset > origin.length()) {
+          // Not a partial copy of this source.
+          offset = 0;
+        }
+        if (offset < origin.length() || offset == 0) {
+          try (InputStream is = src.read(offset); OutputStream os = dst.write(offset)) {
+            Streams.copy(is, os, false, bufferSize);
+          }
+        }
+        long copied = dst.refresh().getAttributes().length();
+        if (copied != origin.length()) {
+          throw new IOException("Incomplete copy of " + src.getPath() + " (" + copied + " of " + origin.length() + " bytes).");
+        }
+        return;
+      } catch (IOException e) {
+        if (attempt >= options.getRetries()) {
+          throw e;
+        }
+        logger.log(Level.WARNING, "[Resume] Copy of " + src.getPath() + " failed - retrying in " + delay + "ms.", e);
+        try {
+          Thread.sleep(delay);
+        } catch (InterruptedException ex) {
+          Thread.currentThread().interrupt();
+          throw new InterruptedIOException("Interrupted during resumable copy of " + src.getPath());
+        }
+        delay = Math.min(delay * 2, MAX_RETRY_DELAY);
+        FileAttributes now = src.refresh().getAttributes();
+        restart = now.length() != origin.length() || now.getLastModified() != origin.getLastModified();
+        origin = now;
+      }
+    }
+  }
+
+  /**
+   * <p>
+   * Copy the listed files below the source directory to the same relative paths below the target.
+   * 
+   * <p>
+   * Directories are created first (each resolved once, from its parent) then the files are copied as
+   * asynchronous tasks, so the number running against each host is limited by its plugin. Files are
+   * resolved against their directory - from a single listing of it when it already existed (and
+   * without any lookup when it was just created).
+   * 
+   * @param src
+   * @param target
+   * @param grab
+   * @param move
+   * @param options
+   * @return
+   * @throws IOException
+   */
+  static CopyReport tree(File src, File target, File.GrabFilter grab, File.MoveFilter move, File.CopyOptions options) throws IOException {
+    long start = System.currentTimeMillis();
+    String base = directory(src.getPath());
+    List<File> files = new ArrayList<>();
+    List<String> paths = new ArrayList<>();
+    TreeSet<String> directories = new TreeSet<>();
+    for (File file : src.list(grab, move)) {
+      String path = relative(base, file);
+      if (file.getAttributes().isDirectory()) {
+        directories.add(directory(path));
+      } else {
+        files.add(file);
+        paths.add(path);
+        addParent(directories, path);
+      }
+    }
+    Directories handles = mkdirs(target, directories);
+    boolean times = target.supportsLastModified();
+    AtomicBoolean cancelled = new AtomicBoolean(false);
+    AtomicInteger copied = new AtomicInteger(), skipped = new AtomicInteger();
+    AtomicLong bytes = new AtomicLong();
+    List<CompletableFuture<Void>> copies = new ArrayList<>(files.size());
+    for (int i = 0; i < files.size(); i++) {
+      File from = files.get(i);
+      String path = paths.get(i);
+      copies.add(Tasks.submit(() -> {
+        if (cancelled.get()) {
+          return null;
+        }
+        File to = handles.file(path);
+        FileAttributes attributes = from.getAttributes();
+        if (options.isSkipUnchanged() && unchanged(attributes, to.getAttributes(), times)) {
+          skipped.incrementAndGet();
+          return null;
+        }
+        from.operations.copyTo(to, options);
+        if (options.isSkipUnchanged() && times) {
+          to.setLastModified(attributes.getLastModified());
+        }
+        copied.incrementAndGet();
+        bytes.addAndGet(attributes.length());
+        return null;
+      }, from, target));
+    }
+    await(copies, cancelled, src);
+    return new CopyReport(copied.get(), skipped.get(), directories.size(), bytes.get(), System.currentTimeMillis() - start);
+  }
+
+  /**
+   * The path of the file relative to the base directory path.
+   */
+  static String relative(String base, File file) {
+    return file.getPath().startsWith(base) ? file.getPath().substring(base.length()) : file.getName();
+  }
+
+  static void addParent(TreeSet<String> directories, String path) {
+    if (path.lastIndexOf('/') > 0) {
+      directories.add(path.substring(0, path.lastIndexOf('/') + 1));
+    }
+  }
+
+  /**
+   * Create the relative directories below the target.
+   */
+  static Directories mkdirs(File target, TreeSet<String> directories) throws IOException {
+    if (!target.exists()) {
+      target.mkdirs();
+    }
+    Directories handles = new Directories(target);
+    for (String directory : directories) {
+      handles.directory(directory);
+    }
+    return handles;
+  }
+
+  /**
+   * The directories below a target by relative path ("" is the target itself) - each one is
+   * resolved (and created when it is missing) once, from the handle of its parent.
+   */
+  static final class Directories {
+    private final Map<String, File> handles = new HashMap<>();
+    private final Set<String> created = new HashSet<>();
+    private final Map<String, CompletableFuture<Map<String, File>>> listed = new HashMap<>();
+
+    private Directories(File target) {
+      handles.put("", target);
+    }
+
+    private File directory(String directory) throws IOException {
+      File handle = handles.get(directory);
+      if (handle == null) {
+        int slash = directory.lastIndexOf('/', directory.length() - 2);
+        File parent = directory(directory.substring(0, slash + 1));
+        handle = created.contains(directory.substring(0, slash + 1)) ? parent.createNew(directory.substring(slash + 1)) : parent.create(directory.substring(slash + 1));
+        if (!handle.exists()) {
+          if (!handle.mkdirs()) {
+            throw new IOException("Could not create directory " + handle.getPath());
+          }
+          created.add(directory);
+        }
+        handles.put(directory, handle);
+      }
+      return handle;
+    }
+
+    /**
+     * The file at the relative path (below a directory that has been created) - taken from one
+     * listing of its directory when that already existed. Safe to call from several tasks at once.
+     */
+    File file(String path) throws IOException {
+      int slash = path.lastIndexOf('/');
+      String directory = path.substring(0, slash + 1);
+      String name = path.substring(slash + 1);
+      File handle = handles.get(directory);
+      if (created.contains(directory)) {
+        return handle.createNew(name);
+      }
+      CompletableFuture<Map<String, File>> children;
+      boolean lister = false;
+      synchronized (listed) {
+        children = listed.get(directory);
+        if (children == null) {
+          listed.put(directory, children = new CompletableFuture<>());
+          lister = true;
+        }
+      }
+      if (lister) {
+        try {
+          Map<String, File> names = new HashMap<>();
+          for (File child : handle.children()) {
+            names.put(child.getName(), child);
+          }
+          children.complete(names);
+        } catch (IOException | RuntimeException e) {
+          children.completeExceptionally(e);
+        }
+      }
+      try {
+        File file = children.join().get(name);
+        return (file == null) ? handle.createNew(name) : file;
+      } catch (CompletionException e) {
+        throw (e.getCause() instanceof IOException) ? (IOException) e.getCause() : new IOException(e.getCause());
+      }
+    }
+
+  }
+
+  /**
+   * Wait for every task - the first failure is thrown with the rest suppressed. When interrupted
+   * the tasks that have not started are cancelled.
+   */
+  static void await(List<? extends CompletableFuture<?>> tasks, AtomicBoolean cancelled, File src) throws IOException {
+    IOException failure = null;
+    for (CompletableFuture<?> task : tasks) {
+      try {
+        task.get();
+      } catch (InterruptedException e) {
+        cancelled.set(true);
+        Thread.currentThread().interrupt();
+        throw new InterruptedIOException("Interrupted copying " + src.getPath());
+      } catch (ExecutionException e) {
+        IOException cause = (e.getCause() instanceof IOException) ? (IOException) e.getCause() : new IOException(e.getCause());
+        if (failure == null) {
+          failure = cause;
+        } else {
+          failure.addSuppressed(cause);
+        }
+      }
+    }
+    if (failure != null) {
+      throw failure;
+    }
+  }
+
+  static String directory(String path) {
+    return path.endsWith("/") ? path : path + "/";
+  }
+
+  /**
+   * Modification times are compared to the second (the resolution of most remote schemes) - and not
+   * at all when the target scheme can not set them (only the lengths are compared).
+   */
+  private static boolean unchanged(FileAttributes source, FileAttributes target, boolean times) {
+    return target.exists() && target.isFile() && target.length() == source.length() && (!times || target.getLastModified() / 1000 == source.getLastModified() / 1000);
+  }
+
+}
@@ -0,0 +1,256 @@
+package org.keeber.simpleio;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.Semaphore;
+
+import org.keeber.simpleio.File.GrabFilter;
+import org.keeber.simpleio.File.MoveFilter;
+
+/**
+ * <p>
+ * Recursive directory listing used by {@link File#list(GrabFilter, MoveFilter, java.util.Comparator)}.
+ * 
+ * <p>
+ * The walk is depth first and collects files in the order they are visited (every grabbed file is
+ * followed by the contents of its directory when it is moved into). The parallel walk lists
+ * sub-directories concurrently on a fork/join pool but assembles the result in exactly the same
+ * order as the sequential walk. Only as many listings as the plugin's parallelism run at once (across
+ * every walk on the scheme), and each blocks as a managed blocker (so the pool can keep its other
+ * threads busy meanwhile).
+ * 
+ * <p>
+ * The lazy walk (behind {@link File#walk(GrabFilter, MoveFilter)}) visits in the same order but
+ * only opens a directory when the caller asks for the next file beyond it.
+ */
+final class Walker {
+
+  private Walker() {
+
+  }
+
+  static List<File> walk(File root, GrabFilter grab, MoveFilter move) throws IOException {
+    List<File> list = new ArrayList<File>();
+    walk(root, grab, move, 0, list);
+    return list;
+  }
+
+  private static void walk(File dir, GrabFilter grab, MoveFilter move, int depth, List<File> list) throws IOException {
+    for (File child : dir.children()) {
+      if (grab.shouldGrab(child)) {
+        list.add(child);
+      }
+      if (child.isDirectory() && move.shouldMove(child, depth)) {
+        walk(child, grab, move, depth + 1, list);
+      }
+    }
+  }
+
+  /**
+   * Walk on the provided pool, listing a directory only while holding one of the listing permits -
+   * the filters are called concurrently so must be thread safe.
+   */
+  static List<File> walk(File root, GrabFilter grab, MoveFilter move, ForkJoinPool pool, Semaphore listings) throws IOException {
+    try {
+      return pool.invoke(new Task(root, grab, move, 0, listings));
+    } catch (UncheckedIOException e) {
+      throw e.getCause();
+    }
+  }
+
+  private static class Task extends RecursiveTask<List<File>> {
+    private static final long serialVersionUID = 1L;
+    private final File dir;
+    private final GrabFilter grab;
+    private final MoveFilter move;
+    private final int depth;
+    private final Semaphore listings;
+
+    private Task(File dir, GrabFilter grab, MoveFilter move, int depth, Semaphore listings) {
+      this.dir = dir;
+      this.grab = grab;
+      this.move = move;
+      this.depth = depth;
+      this.listings = listings;
+    }
+
+    @Override
+    protected List<File> compute() {
+      try {
+        // Files and forked sub-directory tasks, in visiting order.
+        List<Object> parts = new ArrayList<Object>();
+        for (File child : children()) {
+          if (grab.shouldGrab(child)) {
+            parts.add(child);
+          }
+          if (child.isDirectory() && move.shouldMove(child, depth)) {
+            parts.add(new Task(child, grab, move, depth + 1, listings).fork());
+          }
+        }
+        List<File> list = new ArrayList<File>(parts.size());
+        for (Object part : parts) {
+          if (part instanceof Task) {
+            list.addAll(((Task) part).join());
+          } else {
+            list.add((File) part);
+          }
+        }
+        return list;
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
+    }
+
+    /**
+     * List the directory once a listing is free (blocking as a managed blocker).
+     */
+    private List<File> children() throws IOException {
+      Lister listing = new Lister(dir, listings);
+      try {
+        ForkJoinPool.managedBlock(listing);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new InterruptedIOException("Interrupted listing " + dir.getPath());
+      }
+      if (listing.failure != null) {
+        throw listing.failure;
+      }
+      return listing.children;
+    }
+  }
+
+  private static class Lister implements ForkJoinPool.ManagedBlocker {
+    private final File dir;
+    private final Semaphore listings;
+    private List<File> children;
+    private IOException failure;
+
+    private Lister(File dir, Semaphore listings) {
+      this.dir = dir;
+      this.listings = listings;
+    }
+
+    @Override
+    public boolean block() throws InterruptedException {
+      listings.acquire();
+      try {
+        children = dir.children();
+      } catch (IOException e) {
+        failure = e;
+      } finally {
+        listings.release();
+      }
+      return true;
+    }
+
+    @Override
+    public boolean isReleasable() {
+      return children != null || failure != null;
+    }
+  }
+
+  static class Lazy implements Iterator<File>, Closeable {
+    private final File root;
+    private final GrabFilter grab;
+    private final MoveFilter move;
+    private final Deque<Frame> stack = new ArrayDeque<Frame>();
+    private boolean started = false;
+    private boolean closed = false;
+    private File next;
+    // A directory to descend into before reading any further (opened on demand).
+    private File descend;
+    private int descendDepth;
+
+    Lazy(File root, GrabFilter grab, MoveFilter move) {
+      this.root = root;
+      this.grab = grab;
+      this.move = move;
+    }
+
+    @Override
+    public boolean hasNext() {
+      if (next == null && !closed) {
+        try {
+          advance();
+        } catch (IOException e) {
+          close();
+          throw new UncheckedIOException(e);
+        }
+      }
+      return next != null;
+    }
+
+    @Override
+    public File next() {
+      if (!hasNext()) {
+        throw new NoSuchElementException();
+      }
+      File file = next;
+      next = null;
+      return file;
+    }
+
+    private void advance() throws IOException {
+      if (!started) {
+        started = true;
+        stack.push(new Frame(root.openChildren(), 0));
+      }
+      while (next == null) {
+        if (descend != null) {
+          File dir = descend;
+          descend = null;
+          stack.push(new Frame(dir.openChildren(), descendDepth));
+        }
+        Frame top = stack.peek();
+        if (top == null) {
+          return;
+        }
+        File child = top.listing.next();
+        if (child == null) {
+          stack.pop();
+          Streams.close(top.listing);
+          continue;
+        }
+        if (grab.shouldGrab(child)) {
+          next = child;
+        }
+        if (child.isDirectory() && move.shouldMove(child, top.depth)) {
+          descend = child;
+          descendDepth = top.depth + 1;
+        }
+      }
+    }
+
+    @Override
+    public void close() {
+      closed = true;
+      next = null;
+      descend = null;
+      while (!stack.isEmpty()) {
+        Streams.close(stack.pop().listing);
+      }
+    }
+
+  }
+
+  private static class Frame {
+    private final File.Listing listing;
+    private final int depth;
+
+    private Frame(File.Listing listing, int depth) {
+      this.listing = listing;
+      this.depth = depth;
+    }
+  }
+
+}
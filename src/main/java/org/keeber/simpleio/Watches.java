@@ -0,0 +1,147 @@
+package org.keeber.simpleio;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * <p>
+ * One watch service and thread for the watched (local) hotfolders of a {@link HotfolderManager} -
+ * or of a single hotfolder run on its own. Each watched directory's events go to the listener that
+ * registered it.
+ *
+ * <p>
+ * The service and thread are started with the first directory registered.
+ */
+final class Watches implements Closeable {
+  private static final Logger logger = Logger.getLogger(Watches.class.getSimpleName());
+
+  private final String name;
+  private final Map<WatchKey, Registration> registrations = new ConcurrentHashMap<>();
+  private WatchService service;
+  private boolean closed = false;
+
+  /**
+   * Receives the events of the directories it registered (on the watch thread).
+   */
+  interface Listener {
+
+    /**
+     * @param key
+     * @param dir the registered directory.
+     * @param events
+     */
+    void onEvents(WatchKey key, Path dir, List<WatchEvent<?>> events);
+
+    /**
+     * The directory can no longer be watched (it was deleted or moved).
+     */
+    void onInvalid(WatchKey key);
+
+  }
+
+  private static final class Registration {
+    private final Path dir;
+    private final Listener listener;
+
+    private Registration(Path dir, Listener listener) {
+      this.dir = dir;
+      this.listener = listener;
+    }
+
+  }
+
+  /**
+   * @param name the name of the watch thread.
+   */
+  Watches(String name) {
+    this.name = name;
+  }
+
+  /**
+   * Watch the directory for created, modified and deleted entries.
+   *
+   * @return the key (cancel it to stop watching).
+   */
+  WatchKey register(Path dir, Listener listener) throws IOException {
+    WatchKey key = dir.register(service(), StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY, StandardWatchEventKinds.ENTRY_DELETE);
+    registrations.put(key, new Registration(dir, listener));
+    return key;
+  }
+
+  /**
+   * Stop watching the directory.
+   */
+  void cancel(WatchKey key) {
+    registrations.remove(key);
+    key.cancel();
+  }
+
+  private synchronized WatchService service() throws IOException {
+    if (closed) {
+      throw new IOException("Watches are closed.");
+    }
+    if (service == null) {
+      // Local folders are all on the default file system.
+      service = FileSystems.getDefault().newWatchService();
+      WatchService watching = service;
+      Thread thread = new Thread(() -> run(watching), name);
+      thread.setDaemon(true);
+      thread.start();
+    }
+    return service;
+  }
+
+  private void run(WatchService service) {
+    try {
+      while (true) {
+        WatchKey key = service.take();
+        Registration registration = registrations.get(key);
+        List<WatchEvent<?>> events = key.pollEvents();
+        if (registration == null) {
+          // Cancelled since.
+          continue;
+        }
+        try {
+          registration.listener.onEvents(key, registration.dir, events);
+        } catch (RuntimeException e) {
+          logger.log(Level.SEVERE, "[Watching] ERROR", e);
+        }
+        if (!key.reset()) {
+          registrations.remove(key);
+          registration.listener.onInvalid(key);
+        }
+      }
+    } catch (ClosedWatchServiceException | InterruptedException e) {
+      // Stopped.
+    }
+  }
+
+  /**
+   * Stop the watch thread (nothing can be registered after).
+   */
+  @Override
+  public synchronized void close() {
+    closed = true;
+    registrations.clear();
+    if (service != null) {
+      try {
+        service.close();
+      } catch (IOException e) {
+        logger.log(Level.FINE, "[Watching] Close failed.", e);
+      }
+    }
+  }
+
+}
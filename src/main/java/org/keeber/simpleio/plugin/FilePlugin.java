@@ -6,12 +6,25 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.net.URI;
+import java.net.URISyntaxException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.file.DirectoryIteratorException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileSystemException;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
 import java.util.ArrayList;
-import java.util.Collections;
-import java.util.Comparator;
+import java.util.Iterator;
 import java.util.List;
 
 import org.keeber.simpleio.File;
+import org.keeber.simpleio.FileAttributes;
 
 public class FilePlugin extends File.Plugin {
   private static final java.io.File home = new java.io.File(System.getProperty("user.home"));
@@ -31,19 +44,146 @@ public class FilePlugin extends File.Plugin {
   public static class SIOFile extends File {
     private java.io.File ref;
     private boolean isDir = false;
+    // When the type was read with the rest of the attributes (no need to stat again) - it only holds
+    // for that snapshot, so anything that changes the file clears it.
+    private boolean typed = false;
 
     protected SIOFile(java.io.File ref, boolean isDir) throws IOException {
       this.ref = ref.getCanonicalFile();
       this.isDir = isDir;
     }
 
+    /**
+     * For paths that are already canonical.
+     */
+    private SIOFile(java.io.File ref, boolean isDir, boolean typed) {
+      this.ref = ref;
+      this.isDir = isDir;
+      this.typed = typed;
+    }
+
+    /**
+     * <p>
+     * Create a file for a directory entry with a single attribute read.
+     * 
+     * <p>
+     * Entries of a canonical directory are already canonical unless they are symbolic links - only
+     * those are resolved (matching what getCanonicalFile() would have done).
+     */
+    private static SIOFile entry(Path path) throws IOException {
+      BasicFileAttributes attrs;
+      try {
+        attrs = Files.readAttributes(path, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+      } catch (NoSuchFileException e) {
+        // Gone since it was listed.
+        return new SIOFile(path.toFile(), false, false);
+      }
+      if (attrs.isSymbolicLink()) {
+        try {
+          path = path.toRealPath();
+          attrs = Files.readAttributes(path, BasicFileAttributes.class);
+        } catch (IOException e) {
+          // Dangling link.
+          SIOFile file = new SIOFile(path.toFile(), false, true);
+          file.setAttributes(new FileAttributes(false, false, true, 0, 0));
+          return file;
+        }
+      }
+      SIOFile file = new SIOFile(path.toFile(), attrs.isDirectory(), true);
+      file.setAttributes(new FileAttributes(true, attrs.isDirectory(), !attrs.isDirectory(), attrs.size(), attrs.lastModifiedTime().toMillis()));
+      return file;
+    }
+
+    /**
+     * 
+     * @return the local path of this file.
+     */
+    public Path toPath() {
+      return ref.toPath();
+    }
+
     protected InputStream read() throws IOException{
       return new FileInputStream(ref);
     }
     
     protected OutputStream write() throws IOException{
+      typed = false;
       return new FileOutputStream(ref);
     }
+
+    @Override
+    protected OutputStream write(long offset) throws IOException {
+      typed = false;
+      if (offset == 0) {
+        return write();
+      }
+      try (FileChannel channel = FileChannel.open(ref.toPath(), StandardOpenOption.WRITE)) {
+        if (channel.size() < offset) {
+          throw new IOException("Cannot write " + ref + " from " + offset + " (it is only " + channel.size() + " bytes).");
+        }
+        channel.truncate(offset);
+      }
+      return new FileOutputStream(ref, true);
+    }
+
+    @Override
+    protected SeekableByteChannel channel() throws IOException {
+      return FileChannel.open(ref.toPath(), StandardOpenOption.READ);
+    }
+
+    /**
+     * The mapping stays valid after the channel is closed.
+     */
+    @Override
+    protected MappedByteBuffer map(long position, long size) throws IOException {
+      try (FileChannel channel = FileChannel.open(ref.toPath(), StandardOpenOption.READ)) {
+        return channel.map(FileChannel.MapMode.READ_ONLY, position, size);
+      }
+    }
+
+    /**
+     * Local to local copies are done by the kernel (FileChannel.transferTo) - or as a hard link
+     * when requested and possible.
+     */
+    @Override
+    protected boolean copyDirect(File target, CopyOptions options) throws IOException {
+      if (!(target instanceof SIOFile) || isDirectory()) {
+        return false;
+      }
+      Path src = ref.toPath();
+      Path dst = ((SIOFile) target).ref.toPath();
+      if (options.isLink() && link(src, dst)) {
+        return true;
+      }
+      try (FileChannel in = FileChannel.open(src, StandardOpenOption.READ);
+          FileChannel out = FileChannel.open(dst, StandardOpenOption.WRITE, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING)) {
+        long size = in.size();
+        long position = 0;
+        while (position < size) {
+          long transferred = in.transferTo(position, size - position, out);
+          if (transferred == 0 && position >= in.size()) {
+            // Truncated while copying.
+            throw new IOException("Incomplete copy of " + getPath() + " (" + position + " of " + size + " bytes).");
+          }
+          position += transferred;
+        }
+      }
+      return true;
+    }
+
+    private static boolean link(Path src, Path dst) throws IOException {
+      if (src.equals(dst)) {
+        return true;
+      }
+      try {
+        Files.deleteIfExists(dst);
+        Files.createLink(dst, src);
+        return true;
+      } catch (FileSystemException | UnsupportedOperationException e) {
+        // Different filesystems (or no hard links) - copy instead.
+        return false;
+      }
+    }
     
     @Override
     public long getLastModified() throws IOException {
@@ -62,6 +202,9 @@ public class FilePlugin extends File.Plugin {
 
     @Override
     public boolean isDirectory() {
+      if (typed) {
+        return isDir;
+      }
       return ref.exists() ? ref.isDirectory() : isDir;
     }
 
@@ -82,33 +225,72 @@ public class FilePlugin extends File.Plugin {
 
     @Override
     public File parent() throws IOException {
-      return new SIOFile(ref.getParentFile(), true);
+      return new SIOFile(ref.getParentFile(), true, false);
     }
 
     @Override
-    public List<File> list(GrabFilter grab, MoveFilter move, Comparator<File> default1) throws IOException {
-      List<File> list = IOList(grab, move, ref, 0);
-      Collections.sort(list, default1);
-      return list;
+    protected List<File> children() throws IOException {
+      List<File> children = new ArrayList<File>();
+      try (Listing listing = openChildren()) {
+        File f;
+        while ((f = listing.next()) != null) {
+          children.add(f);
+        }
+      }
+      return children;
     }
 
-    public ArrayList<File> IOList(GrabFilter grab, MoveFilter move, java.io.File root, int depth) throws IOException {
-      ArrayList<File> retList = new ArrayList<File>();
-      java.io.File[] list;
-      if (root.canRead()) {
-        list = root.listFiles();
-        if (list != null) {
-          for (java.io.File f : list) {
-            if (grab.shouldGrab(new SIOFile(f, f.isDirectory()))) {
-              retList.add(new SIOFile(f, f.isDirectory()));
-            }
-            if (f.isDirectory() && move.shouldMove(new SIOFile(f, f.isDirectory()), depth)) {
-              retList.addAll(IOList(grab, move, f, depth + 1));
-            }
+    @Override
+    protected Listing openChildren() throws IOException {
+      DirectoryStream<Path> stream;
+      try {
+        stream = Files.newDirectoryStream(ref.toPath());
+      } catch (IOException e) {
+        // Not a (readable) directory.
+        return new Listing() {
+
+          @Override
+          public File next() {
+            return null;
+          }
+
+          @Override
+          public void close() {
+            // Nothing open.
+          }
+        };
+      }
+      Iterator<Path> paths = stream.iterator();
+      return new Listing() {
+
+        @Override
+        public File next() throws IOException {
+          try {
+            return paths.hasNext() ? entry(paths.next()) : null;
+          } catch (DirectoryIteratorException e) {
+            throw e.getCause();
           }
         }
+
+        @Override
+        public void close() throws IOException {
+          stream.close();
+        }
+      };
+    }
+
+    @Override
+    protected FileAttributes readAttributes() throws IOException {
+      try {
+        BasicFileAttributes attrs = Files.readAttributes(ref.toPath(), BasicFileAttributes.class);
+        // The type goes with the new snapshot.
+        isDir = attrs.isDirectory();
+        typed = true;
+        return new FileAttributes(true, attrs.isDirectory(), !attrs.isDirectory(), attrs.size(), attrs.lastModifiedTime().toMillis());
+      } catch (NoSuchFileException e) {
+        typed = false;
+        return new FileAttributes(false, isDir, !isDir, 0, 0);
       }
-      return retList;
     }
 
     @Override
@@ -128,26 +310,53 @@ public class FilePlugin extends File.Plugin {
 
     @Override
     public String getPath() {
-      return Plugin.cleanPath(ref.toURI().normalize().getPath() + (isDirectory() ? "/" : ""));
+      return Plugin.cleanPath(toURI().normalize().getPath() + (isDirectory() ? "/" : ""));
     }
 
     @Override
     public URI getURI() {
-      return Plugin.normalize(ref.toURI(), isDirectory());
+      return Plugin.normalize(toURI(), isDirectory());
+    }
+
+    /**
+     * The same URI as java.io.File.toURI() - but using the known type rather than another stat.
+     */
+    private URI toURI() {
+      String sp = ref.getAbsolutePath();
+      if (java.io.File.separatorChar != '/') {
+        sp = sp.replace(java.io.File.separatorChar, '/');
+      }
+      if (!sp.startsWith("/")) {
+        sp = "/" + sp;
+      }
+      if (!sp.endsWith("/") && isDirectory()) {
+        sp = sp + "/";
+      }
+      if (sp.startsWith("//")) {
+        sp = "//" + sp;
+      }
+      try {
+        return new URI("file", null, sp, null);
+      } catch (URISyntaxException e) {
+        return ref.toURI();
+      }
     }
 
     @Override
     public boolean delete() throws IOException {
+      typed = false;
       return ref.delete();
     }
 
     @Override
     public boolean mkdir() throws IOException {
+      typed = false;
       return ref.mkdir();
     }
 
     @Override
     public boolean mkdirs() throws IOException {
+      typed = false;
       return ref.mkdirs();
     }
 
@@ -156,6 +365,7 @@ public class FilePlugin extends File.Plugin {
       if (!SIOFile.class.equals(file.getClass())) {
         throw new IOException("Cross scheme rename not implemented (or allowed).");
       }
+      typed = false;
       return ref.renameTo(new java.io.File(file.getURI()));
     }
 
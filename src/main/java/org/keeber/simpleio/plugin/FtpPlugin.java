@@ -1,22 +1,30 @@
 package org.keeber.simpleio.plugin;
 
 import java.io.BufferedReader;
+import java.io.FilterInputStream;
 import java.io.FilterOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InterruptedIOException;
 import java.io.OutputStream;
 import java.net.InetAddress;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.net.URL;
 import java.net.URLDecoder;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Calendar;
-import java.util.Collections;
-import java.util.Comparator;
+import java.util.Deque;
 import java.util.GregorianCalendar;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -25,9 +33,11 @@ import org.apache.commons.net.ftp.FTPClient;
 import org.apache.commons.net.ftp.FTPClientConfig;
 import org.apache.commons.net.ftp.FTPFile;
 import org.apache.commons.net.ftp.FTPFileEntryParser;
+import org.apache.commons.net.ftp.FTPListParseEngine;
 import org.apache.commons.net.ftp.parser.FTPFileEntryParserFactory;
 import org.apache.commons.net.ftp.parser.ParserInitializationException;
 import org.keeber.simpleio.File;
+import org.keeber.simpleio.FileAttributes;
 import org.keeber.simpleio.File.Plugin;
 
 public class FtpPlugin extends Plugin {
@@ -37,61 +47,441 @@ public class FtpPlugin extends Plugin {
     return new FtpPlugin();
   }
 
+  private int maxConnections = 4;
+  private long idleTimeout = TimeUnit.SECONDS.toMillis(60);
+  private long keepAlive = TimeUnit.SECONDS.toMillis(30);
+  private long validateAfter = TimeUnit.SECONDS.toMillis(2);
+  private long borrowTimeout = TimeUnit.SECONDS.toMillis(60);
+
+  private final ClientPool pool = new ClientPool();
+
+  /**
+   * The maximum number of control connections held open (in use or idle) for each host, port and
+   * user (default 4). Applies to hosts that have not been connected to yet.
+   * 
+   * @param maxConnections
+   * @return this plugin.
+   */
+  public FtpPlugin setMaxConnections(int maxConnections) {
+    this.maxConnections = Math.max(1, maxConnections);
+    return this;
+  }
+
+  /**
+   * How long an unused connection is kept in the pool before it is logged out (default 60 seconds).
+   * 
+   * @param time
+   * @param unit
+   * @return this plugin.
+   */
+  public FtpPlugin setIdleTimeout(long time, TimeUnit unit) {
+    this.idleTimeout = unit.toMillis(time);
+    return this;
+  }
+
+  /**
+   * How often a NOOP is sent on idle pooled connections to stop the server dropping them (default
+   * 30 seconds).
+   * <p>
+   * Nothing is sent on the control connection while a stream is open - commons-net only does that
+   * inside its own retrieveFile/storeFile. A transfer that outlasts the server's control timeout
+   * fails on close (and its client is discarded).
+   * 
+   * @param time
+   * @param unit
+   * @return this plugin.
+   */
+  public FtpPlugin setKeepAlive(long time, TimeUnit unit) {
+    this.keepAlive = unit.toMillis(time);
+    return this;
+  }
+
+  /**
+   * Logs out and disconnects every idle pooled connection. Connections in use are closed when they
+   * are returned.
+   */
+  public void shutdown() {
+    pool.shutdown();
+  }
+
   @Override
   public File resolve(URI uri) throws IOException {
     try {
       URL url = uri.toURL();
-      FTPClient client = new FTPClient();
 
       String host = url.getHost();
 
       int port = (url.getPort() < 1) ? url.getDefaultPort() : url.getPort();
-      client.connect(InetAddress.getByName(url.getHost()), port);
       // // Login
       String[] userinfo = url.getUserInfo().split(":");
       String username = URLDecoder.decode(userinfo[0], "UTF-8");
       String password = (userinfo.length == 1) ? null : URLDecoder.decode(userinfo[1], "UTF-8");
 
-      client.login(username, password);
+      return new FtpSIOFile(null, url.getFile(), host, port, username, password, url.getPath().endsWith("/"));
+    } catch (Exception e) {
+      throw new IOException(e);
+    }
+  }
+
+  /**
+   * Larger buffers for high latency transfers.
+   */
+  @Override
+  protected int getDefaultBufferSize() {
+    return 256 * 1024;
+  }
+
+  /**
+   * Half the pooled connections - a copy between two files on the same server holds two connections
+   * (so a full gate of copies can not run the pool dry).
+   */
+  @Override
+  protected int getDefaultConcurrency() {
+    return Math.max(1, maxConnections / 2);
+  }
+
+  @Override
+  public String getScheme() {
+    return "ftp";
+  }
+
+  /**
+   * Connects and logs in a new client for the given key.
+   * 
+   * @param key
+   * @return a ready to use client.
+   * @throws IOException
+   */
+  private FTPClient connect(Key key) throws IOException {
+    FTPClient client = new FTPClient();
+    try {
+      client.connect(InetAddress.getByName(key.host), key.port);
+      if (!client.login(key.username, key.password)) {
+        throw new IOException("Login failed for " + key + ": " + client.getReplyString());
+      }
       client.setFileType(FTP.BINARY_FILE_TYPE);
       client.setListHiddenFiles(true);
       // // Passive modes
       client.enterLocalPassiveMode();
       // // Pete's Server
-      if (client.getSystemType().matches(".*MACOS.*")) {
+      String system = client.getSystemType();
+      if (system != null && system.matches(".*MACOS.*")) {
         client.setParserFactory(new RumpusFileEntryParserFactory());
       }
-      // ///////////////////////////////
-      return new FtpSIOFile(null, client, url.getFile(), host, port, username, password, url.getPath().endsWith("/"));
-    } catch (Exception e) {
-      throw new IOException(e);
+      logger.log(Level.CONFIG, "[Pool] Connected {0}", new Object[] {key});
+      return client;
+    } catch (IOException | RuntimeException e) {
+      close(client);
+      throw e;
     }
   }
 
-  @Override
-  public String getScheme() {
-    return "ftp";
+  private static void close(FTPClient client) {
+    try {
+      if (client.isConnected()) {
+        client.logout();
+      }
+    } catch (IOException e) {
+      // Going away anyway.
+    }
+    try {
+      client.disconnect();
+    } catch (IOException e) {
+      logger.log(Level.FINE, null, e);
+    }
+  }
+
+  /**
+   * Pool identity - the host, port and user (with credentials) a connection is logged in as.
+   */
+  private static class Key {
+    private final String host;
+    private final int port;
+    private final String username;
+    private final String password;
+
+    private Key(String host, int port, String username, String password) {
+      this.host = host;
+      this.port = port;
+      this.username = username;
+      this.password = password;
+    }
+
+    @Override
+    public int hashCode() {
+      int result = host.hashCode();
+      result = 31 * result + port;
+      result = 31 * result + ((username == null) ? 0 : username.hashCode());
+      result = 31 * result + ((password == null) ? 0 : password.hashCode());
+      return result;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+      if (!(obj instanceof Key)) {
+        return false;
+      }
+      Key other = (Key) obj;
+      return host.equals(other.host) && port == other.port && (username == null ? other.username == null : username.equals(other.username))
+          && (password == null ? other.password == null : password.equals(other.password));
+    }
+
+    @Override
+    public String toString() {
+      return username + "@" + host + ":" + port;
+    }
+  }
+
+  /**
+   * <p>
+   * Bounded pools of logged in control connections, one per {@link Key}.
+   * 
+   * <p>
+   * Idle connections are checked with a NOOP before being handed out (when they have not been used
+   * recently), kept alive with a NOOP while they sit in the pool and logged out once they have been
+   * idle for longer than the idle timeout.
+   */
+  private class ClientPool {
+    private final Map<Key, Slot> slots = new ConcurrentHashMap<Key, Slot>();
+    private ScheduledExecutorService evictor;
+
+    private FTPClient borrow(Key key) throws IOException {
+      Slot slot = slots.get(key);
+      if (slot == null) {
+        slot = slots.computeIfAbsent(key, (k) -> new Slot(k, maxConnections));
+        startEvictor();
+      }
+      return slot.borrow();
+    }
+
+    /**
+     * Return a client to the pool - clients that are no longer usable (or whose state is unknown)
+     * are closed instead.
+     */
+    private void release(Key key, FTPClient client, boolean reusable) {
+      Slot slot = slots.get(key);
+      if (slot == null || !reusable || !client.isConnected()) {
+        close(client);
+        if (slot != null) {
+          slot.discard();
+        }
+      } else {
+        slot.giveBack(client);
+      }
+    }
+
+    private synchronized void startEvictor() {
+      if (evictor == null) {
+        evictor = Executors.newSingleThreadScheduledExecutor((r) -> {
+          Thread t = new Thread(r, "FtpPlugin-pool");
+          t.setDaemon(true);
+          return t;
+        });
+        long period = Math.max(1000, Math.min(idleTimeout, keepAlive) / 2);
+        evictor.scheduleWithFixedDelay(() -> {
+          for (Slot slot : slots.values()) {
+            try {
+              slot.evict();
+            } catch (RuntimeException e) {
+              logger.log(Level.WARNING, "[Pool] Eviction failed.", e);
+            }
+          }
+        }, period, period, TimeUnit.MILLISECONDS);
+      }
+    }
+
+    private synchronized void shutdown() {
+      if (evictor != null) {
+        evictor.shutdownNow();
+        evictor = null;
+      }
+      for (Slot slot : slots.values()) {
+        slot.closeIdle();
+      }
+      slots.clear();
+    }
+
+  }
+
+  private static class Pooled {
+    private final FTPClient client;
+    private long lastUsed = System.currentTimeMillis();
+    private long lastChecked = lastUsed;
+
+    private Pooled(FTPClient client) {
+      this.client = client;
+    }
+  }
+
+  /**
+   * The connections for a single key - open counts both idle and borrowed connections.
+   */
+  private class Slot {
+    private final Key key;
+    private final int max;
+    private final Deque<Pooled> idle = new ArrayDeque<Pooled>();
+    private int open = 0;
+
+    private Slot(Key key, int max) {
+      this.key = key;
+      this.max = max;
+    }
+
+    private FTPClient borrow() throws IOException {
+      long deadline = System.currentTimeMillis() + borrowTimeout;
+      while (true) {
+        Pooled pooled = take(deadline);
+        if (pooled == null) {
+          try {
+            return connect(key);
+          } catch (IOException | RuntimeException e) {
+            discard();
+            throw e;
+          }
+        }
+        if (validate(pooled)) {
+          return pooled.client;
+        }
+        close(pooled.client);
+        discard();
+      }
+    }
+
+    /**
+     * @return an idle connection or null if the caller may open a new one.
+     */
+    private synchronized Pooled take(long deadline) throws IOException {
+      while (true) {
+        if (!idle.isEmpty()) {
+          return idle.pollFirst();
+        }
+        if (open < max) {
+          open++;
+          return null;
+        }
+        long wait = deadline - System.currentTimeMillis();
+        if (wait <= 0) {
+          throw new IOException("Timed out waiting for a connection to " + key);
+        }
+        try {
+          wait(wait);
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          throw new InterruptedIOException("Interrupted waiting for a connection to " + key);
+        }
+      }
+    }
+
+    private boolean validate(Pooled pooled) {
+      if (!pooled.client.isConnected()) {
+        return false;
+      }
+      if (System.currentTimeMillis() - pooled.lastChecked < validateAfter) {
+        return true;
+      }
+      try {
+        return pooled.client.sendNoOp();
+      } catch (IOException e) {
+        return false;
+      }
+    }
+
+    private synchronized void giveBack(FTPClient client) {
+      idle.addFirst(new Pooled(client));
+      notifyAll();
+    }
+
+    private synchronized void discard() {
+      open--;
+      notifyAll();
+    }
+
+    /**
+     * Close expired idle connections and NOOP the rest when they are due.
+     */
+    private void evict() {
+      List<Pooled> due = new ArrayList<Pooled>();
+      List<Pooled> expired = new ArrayList<Pooled>();
+      long now = System.currentTimeMillis();
+      synchronized (this) {
+        for (Iterator<Pooled> i = idle.iterator(); i.hasNext();) {
+          Pooled pooled = i.next();
+          if (now - pooled.lastUsed > idleTimeout) {
+            expired.add(pooled);
+            i.remove();
+          } else if (now - pooled.lastChecked > keepAlive) {
+            due.add(pooled);
+            i.remove();
+          }
+        }
+      }
+      for (Pooled pooled : expired) {
+        close(pooled.client);
+        discard();
+      }
+      for (Pooled pooled : due) {
+        boolean alive;
+        try {
+          alive = pooled.client.sendNoOp();
+        } catch (IOException e) {
+          alive = false;
+        }
+        if (alive) {
+          pooled.lastChecked = System.currentTimeMillis();
+          synchronized (this) {
+            idle.addLast(pooled);
+            notifyAll();
+          }
+        } else {
+          close(pooled.client);
+          discard();
+        }
+      }
+    }
+
+    private void closeIdle() {
+      List<Pooled> closing;
+      synchronized (this) {
+        closing = new ArrayList<Pooled>(idle);
+        idle.clear();
+      }
+      for (Pooled pooled : closing) {
+        close(pooled.client);
+        discard();
+      }
+    }
+
+  }
+
+  /**
+   * A unit of work against a borrowed client.
+   */
+  @FunctionalInterface
+  private interface Call<T> {
+
+    public T call(FTPClient client) throws IOException;
+
   }
 
   public class FtpSIOFile extends File {
     private FTPFile ref;
-    private FTPClient client;
     protected String path;
     private String host;
     private String username;
     private String password;
     private int port;
+    private Key key;
     private boolean exists = false;
     private boolean isDir;
 
-    public FtpSIOFile(FTPFile ref, FTPClient client, String path, String host, int port, String username, String password, boolean isDir) throws IOException {
+    public FtpSIOFile(FTPFile ref, String path, String host, int port, String username, String password, boolean isDir) throws IOException {
       this.ref = ref;
-      this.client = client;
       this.path = path;
       this.host = host;
       this.port = port;
       this.username = username;
       this.password = password;
+      this.key = new Key(host, port, username, password);
       this.isDir = isDir;
       if (ref == null) {
         resolveRef();
@@ -101,6 +491,22 @@ public class FtpPlugin extends Plugin {
 
     }
 
+    /**
+     * Run the call with a client borrowed from the pool - the client is returned afterwards (or
+     * closed if the call failed).
+     */
+    private <T> T execute(Call<T> call) throws IOException {
+      FTPClient client = pool.borrow(key);
+      boolean reusable = false;
+      try {
+        T result = call.call(client);
+        reusable = true;
+        return result;
+      } finally {
+        pool.release(key, client, reusable);
+      }
+    }
+
     private void resolveRef() throws IOException {
       String pPath = Plugin.getParentFromPath(path.replaceFirst("/$", ""));
       if (path == null || pPath == null || pPath.equals(path) || pPath.length() == 0) {
@@ -129,8 +535,7 @@ public class FtpPlugin extends Plugin {
     }
 
     private FTPFile getFileFromList(String dir, String name) throws IOException {
-      this.checkConnect();
-      for (FTPFile f : client.listFiles(dir)) {
+      for (FTPFile f : execute((client) -> client.listFiles(dir))) {
 
         if (f.getName().equals(name)) {
 
@@ -141,13 +546,6 @@ public class FtpPlugin extends Plugin {
       return null;
     }
 
-    private void checkConnect() throws IOException {
-      if (!client.isConnected()) {
-        client.connect(host);
-        client.login(username, password);
-      }
-    }
-
     public void setLastModified(long time) throws IOException {
       if (ref == null) {
         return;
@@ -177,37 +575,43 @@ public class FtpPlugin extends Plugin {
       if (ref == null) {
         return false;
       }
-      this.checkConnect();
       if (ref.isDirectory()) {
-        return client.removeDirectory(path);
+        return execute((client) -> client.removeDirectory(path));
       } else {
-        return client.deleteFile(path);
+        return execute((client) -> client.deleteFile(path));
       }
     }
 
     public boolean mkdir() throws IOException {
-      this.checkConnect();
-      client.changeWorkingDirectory(Plugin.getParentFromPath(path));
-      client.mkd(Plugin.getNameFromPath(path));
+      execute((client) -> {
+        client.changeWorkingDirectory(Plugin.getParentFromPath(path));
+        return client.mkd(Plugin.getNameFromPath(path));
+      });
       this.resolveRef();
       return true;
     }
 
     public boolean mkdirs() throws IOException {
-      String[] dirs = path.split("/");
-      String dirString = "";
-      for (int d = 0; d < dirs.length; d++) {
-        dirString = dirString + dirs[d] + "/";
-        if (!client.changeWorkingDirectory(dirString)) {
-          if (!client.makeDirectory(dirString)) {
-            return false;
-          } else {
-            client.site("chmod 777 " + dirString);
-            if (!client.changeWorkingDirectory(dirString)) {
+      boolean made = execute((client) -> {
+        String[] dirs = path.split("/");
+        String dirString = "";
+        for (int d = 0; d < dirs.length; d++) {
+          dirString = dirString + dirs[d] + "/";
+          if (!client.changeWorkingDirectory(dirString)) {
+            if (!client.makeDirectory(dirString)) {
               return false;
+            } else {
+              client.site("chmod 777 " + dirString);
+              if (!client.changeWorkingDirectory(dirString)) {
+                return false;
+              }
             }
           }
         }
+        return true;
+      });
+      if (!made) {
+        return false;
       }
       this.resolveRef();
       return true;
@@ -215,33 +619,61 @@ public class FtpPlugin extends Plugin {
 
     public File parent() throws IOException {
       String r = Plugin.getParentFromPath(path);
-      return new FtpSIOFile(null, client, r, host, port, username, password, true);
+      return new FtpSIOFile(null, r, host, port, username, password, true);
     }
 
     @Override
-    public List<File> list(GrabFilter grab, MoveFilter move, Comparator<File> sorter) throws IOException {
-      ArrayList<File> list = IOList(grab, move, this.path, 0);
-      Collections.sort(list, sorter);
-      return list;
+    protected List<File> children() throws IOException {
+      List<File> children = new ArrayList<File>();
+      try (Listing listing = openChildren()) {
+        File f;
+        while ((f = listing.next()) != null) {
+          children.add(f);
+        }
+      }
+      return children;
     }
 
-
-    private ArrayList<File> IOList(GrabFilter grab, MoveFilter move, String root, int depth) throws IOException {
-      ArrayList<File> retList = new ArrayList<File>();
-      this.checkConnect();
-      for (FTPFile f : client.listFiles(root)) {
-        FtpSIOFile ff = new FtpSIOFile(f, client, Plugin.cleanPath(root + "/" + f.getName()), host, port, username, password, f.isDirectory());
-        if (ff.getPath().endsWith(".") || ff.getName().endsWith(".")) {
-          continue;
-        }
-        if (grab.shouldGrab(ff)) {
-          retList.add(ff);
+    /**
+     * The entries are parsed as they are asked for - the connection goes back to the pool as soon as
+     * the server has sent the listing (so a walk does not hold a connection per level).
+     * <p>
+     * initiateListParsing reads the whole listing (as unparsed lines) before the first entry is
+     * handed out - only the parsing is lazy, so a very large directory is still held in memory.
+     */
+    @Override
+    protected Listing openChildren() throws IOException {
+      FTPListParseEngine engine = execute((client) -> client.initiateListParsing(path));
+      return new Listing() {
+
+        @Override
+        public File next() throws IOException {
+          while (engine.hasNext()) {
+            FTPFile f = engine.getNext(1)[0];
+            if (f == null) {
+              // Unparsable entry.
+              continue;
+            }
+            FtpSIOFile ff = new FtpSIOFile(f, Plugin.cleanPath(path + "/" + f.getName()), host, port, username, password, f.isDirectory());
+            if (ff.getPath().endsWith(".") || ff.getName().endsWith(".")) {
+              continue;
+            }
+            ff.setAttributes(ff.snapshot());
+            return ff;
+          }
+          return null;
         }
-        if (f.isDirectory() && move.shouldMove(ff, depth)) {
-          retList.addAll(IOList(grab, move, ff.path, depth + 1));
+
+        @Override
+        public void close() {
+          // Nothing open.
         }
-      }
-      return retList;
+      };
+    }
+
+    @Override
+    protected boolean supportsSegments() {
+      return true;
     }
 
     public String getName() {
@@ -261,25 +693,140 @@ public class FtpPlugin extends Plugin {
     }
 
     protected InputStream read() throws IOException {
-      this.checkConnect();
-      return client.retrieveFileStream(path);
+      return read(0);
+    }
+
+    /**
+     * Ranged read using REST.
+     */
+    @Override
+    protected InputStream read(long offset) throws IOException {
+      FTPClient client = pool.borrow(key);
+      InputStream is;
+      try {
+        client.setRestartOffset(offset);
+        is = client.retrieveFileStream(path);
+      } catch (IOException | RuntimeException e) {
+        pool.release(key, client, false);
+        throw e;
+      }
+      if (is == null) {
+        String reply = client.getReplyString();
+        pool.release(key, client, true);
+        throw new IOException("Could not open [" + path + "] for reading: " + reply);
+      }
+      return new CloseNotifyInputStream(is, client);
     }
 
     protected OutputStream write() throws IOException {
-      this.checkConnect();
-      return new CloseNotifyOutputStream(client.storeFileStream(path));
+      return write(0);
     }
 
-    public class CloseNotifyOutputStream extends FilterOutputStream {
+    /**
+     * Continue a file using REST then STOR.
+     */
+    @Override
+    protected OutputStream write(long offset) throws IOException {
+      FTPClient client = pool.borrow(key);
+      OutputStream os;
+      try {
+        client.setRestartOffset(offset);
+        os = client.storeFileStream(path);
+      } catch (IOException | RuntimeException e) {
+        pool.release(key, client, false);
+        throw e;
+      }
+      if (os == null) {
+        String reply = client.getReplyString();
+        pool.release(key, client, true);
+        throw new IOException("Could not open [" + path + "] for writing: " + reply);
+      }
+      return new CloseNotifyOutputStream(os, client);
+    }
 
-      protected CloseNotifyOutputStream(OutputStream is) {
+    /**
+     * Completes the transfer and hands the client back to the pool when the stream is closed.
+     */
+    public class CloseNotifyInputStream extends FilterInputStream {
+      private FTPClient client;
+      private boolean eof = false;
+
+      protected CloseNotifyInputStream(InputStream is, FTPClient client) {
         super(is);
+        this.client = client;
+      }
+
+      @Override
+      public int read() throws IOException {
+        int b = super.read();
+        eof = eof || b == -1;
+        return b;
       }
 
+      @Override
+      public int read(byte[] b, int off, int len) throws IOException {
+        int n = super.read(b, off, len);
+        eof = eof || n == -1;
+        return n;
+      }
+
+      /**
+       * A transfer abandoned part way leaves the control connection in an unknown state (servers
+       * differ in the replies they send) - so that client is closed rather than pooled.
+       */
       @Override
       public void close() throws IOException {
-        super.close();
-        client.completePendingCommand();
+        if (client == null) {
+          return;
+        }
+        FTPClient c = client;
+        client = null;
+        boolean reusable = false;
+        try {
+          super.close();
+          if (eof) {
+            if (!c.completePendingCommand()) {
+              throw new IOException("Read of " + getPath() + " failed: " + c.getReplyString());
+            }
+            reusable = true;
+          }
+        } finally {
+          pool.release(key, c, reusable);
+        }
+      }
+
+    }
+
+    public class CloseNotifyOutputStream extends FilterOutputStream {
+      private FTPClient client;
+
+      protected CloseNotifyOutputStream(OutputStream os, FTPClient client) {
+        super(os);
+        this.client = client;
+      }
+
+      @Override
+      public void write(byte[] b, int off, int len) throws IOException {
+        out.write(b, off, len);
+      }
+
+      @Override
+      public void close() throws IOException {
+        if (client == null) {
+          return;
+        }
+        FTPClient c = client;
+        client = null;
+        boolean reusable = false;
+        try {
+          super.close();
+          if (!c.completePendingCommand()) {
+            throw new IOException("Write of " + getPath() + " failed: " + c.getReplyString());
+          }
+          reusable = true;
+        } finally {
+          pool.release(key, c, reusable);
+        }
         resolveRef();
       }
 
@@ -292,21 +839,21 @@ public class FtpPlugin extends Plugin {
       if (!FtpSIOFile.class.equals(file.getClass())) {
         throw new IOException("Cross scheme rename not implemented (or allowed).");
       }
-      this.checkConnect();
       String oPath = ((FtpSIOFile) file).path;
-      client.rename(path, oPath);
+      if (!execute((client) -> client.rename(path, oPath))) {
+        return false;
+      }
       this.path = oPath;
       resolveRef();
       return true;
     }
 
+    /**
+     * Nothing is held by the file itself - connections are borrowed from the plugin pool for each
+     * operation (see {@link FtpPlugin#shutdown()}).
+     */
     public void dispose() {
-      try {
-        client.logout();
-        client.disconnect();
-      } catch (IOException ex) {
-        logger.log(Level.SEVERE, null, ex);
-      }
+      // Not required
     }
 
     public boolean isVisible() {
@@ -314,7 +861,26 @@ public class FtpPlugin extends Plugin {
     }
 
     public File create(String path) throws IOException {
-      return new FtpSIOFile(null, client, Plugin.cleanPath(this.path + path), host, port, username, password, path.endsWith("/"));
+      return new FtpSIOFile(null, Plugin.cleanPath(this.path + path), host, port, username, password, path.endsWith("/"));
+    }
+
+    /**
+     * Without the lookup (a listing of the parent) that create does.
+     */
+    @Override
+    protected File createNew(String path) throws IOException {
+      FtpSIOFile file = new FtpSIOFile(new FTPFile(), Plugin.cleanPath(this.path + path), host, port, username, password, path.endsWith("/"));
+      file.nullRef();
+      file.setAttributes(file.snapshot());
+      return file;
+    }
+
+    /**
+     * There is no portable command to set it - only the local ref changes.
+     */
+    @Override
+    protected boolean supportsLastModified() {
+      return false;
     }
 
     public String stringMarshal() {
@@ -323,7 +889,13 @@ public class FtpPlugin extends Plugin {
 
     @Override
     public long getLastModified() throws IOException {
-      return (ref == null) ? 0 : ref.getTimestamp().getTimeInMillis();
+      return (ref == null || ref.getTimestamp() == null) ? 0 : ref.getTimestamp().getTimeInMillis();
+    }
+
+    @Override
+    protected FileAttributes readAttributes() throws IOException {
+      resolveRef();
+      return snapshot();
     }
 
     @Override
@@ -2,9 +2,11 @@ package org.keeber.simpleio.plugin;
 
 import java.io.BufferedInputStream;
 import java.io.BufferedOutputStream;
+import java.io.FilterInputStream;
 import java.io.FilterOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InterruptedIOException;
 import java.io.OutputStream;
 import java.net.URI;
 import java.net.URISyntaxException;
@@ -12,18 +14,28 @@ import java.net.URL;
 import java.net.URLDecoder;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
-import java.util.Collections;
-import java.util.Comparator;
+import java.util.Deque;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.Properties;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import org.keeber.simpleio.File;
+import org.keeber.simpleio.FileAttributes;
 import org.keeber.simpleio.File.Plugin;
 
-import com.jcraft.jsch.Channel;
 import com.jcraft.jsch.ChannelSftp;
 import com.jcraft.jsch.JSch;
 import com.jcraft.jsch.JSchException;
@@ -38,43 +50,492 @@ public class SftpPlugin extends Plugin {
     return new SftpPlugin();
   }
 
+  private int maxSessions = 2;
+  private int maxChannels = 8;
+  private long idleTimeout = TimeUnit.SECONDS.toMillis(60);
+  private long keepAlive = TimeUnit.SECONDS.toMillis(30);
+  private long leaseTimeout = TimeUnit.SECONDS.toMillis(60);
+  private int pipelining = 64;
+
+  private final SessionCache cache = new SessionCache();
+  // Runs the ls of open listings (handing the entries over as they arrive).
+  private final ExecutorService listers = Executors.newCachedThreadPool((r) -> {
+    Thread t = new Thread(r, "SftpPlugin-listing");
+    t.setDaemon(true);
+    return t;
+  });
+  // Entries read ahead of an open listing.
+  private static final int LISTING_QUEUE = 1024;
+
+  /**
+   * Hand an entry to an open listing - waiting while its queue is full.
+   * 
+   * @return false if the listing was closed first.
+   */
+  private static boolean hand(BlockingQueue<Object> entries, Object entry, AtomicBoolean closed) {
+    try {
+      while (!closed.get()) {
+        if (entries.offer(entry, 100, TimeUnit.MILLISECONDS)) {
+          return true;
+        }
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    return false;
+  }
+
+  /**
+   * The maximum number of SSH sessions opened to each host for a user (default 2).
+   * 
+   * @param maxSessions
+   * @return this plugin.
+   */
+  public SftpPlugin setMaxSessions(int maxSessions) {
+    this.maxSessions = Math.max(1, maxSessions);
+    return this;
+  }
+
+  /**
+   * The maximum number of concurrent sftp channels multiplexed over each session (default 8 - most
+   * servers allow 10, see MaxSessions in sshd_config).
+   * 
+   * @param maxChannels
+   * @return this plugin.
+   */
+  public SftpPlugin setMaxChannels(int maxChannels) {
+    this.maxChannels = Math.max(1, maxChannels);
+    return this;
+  }
+
+  /**
+   * <p>
+   * The number of read requests kept outstanding on a channel during a transfer (default 64) - on
+   * high latency links read throughput is roughly this window divided by the round trip time.
+   * 
+   * <p>
+   * Requests are capped by the negotiated packet size (32KB) so transfers also hand the channel
+   * buffer sized chunks (see {@link #setBufferSize(int)}, default 256KB) to fill every request.
+   * Writes send a whole chunk before waiting on any acknowledgement - the buffer size, not this
+   * window, is what keeps writes in flight.
+   * 
+   * @param requests
+   * @return this plugin.
+   */
+  public SftpPlugin setPipelining(int requests) {
+    this.pipelining = Math.max(1, requests);
+    return this;
+  }
+
+  public int getPipelining() {
+    return pipelining;
+  }
+
+  /**
+   * How long unused channels (and sessions without channels) are kept open (default 60 seconds).
+   * 
+   * @param time
+   * @param unit
+   * @return this plugin.
+   */
+  public SftpPlugin setIdleTimeout(long time, TimeUnit unit) {
+    this.idleTimeout = unit.toMillis(time);
+    return this;
+  }
+
+  /**
+   * Disconnects every cached session. Channels in use are closed when they are returned.
+   */
+  public void shutdown() {
+    cache.shutdown();
+  }
+
   @Override
   public File resolve(URI uri) throws IOException {
     URL url = new URL(Plugin.unescape(uri.toString()).replace("sftp://", "ftp://"));
 
-    JSch ssh = new JSch();
     String host = url.getHost();
+    int port = (url.getPort() < 1) ? 22 : url.getPort();
     String[] userinfo = uri.getUserInfo().split(":");
     String username = URLDecoder.decode(userinfo[0], "UTF-8");
     String password = (userinfo.length == 1) ? null : URLDecoder.decode(userinfo[1], "UTF-8");
+    return new SftpSIOFile(host, port, username, password, url.getPath());
+  }
+
+  /**
+   * Larger buffers for high latency transfers.
+   */
+  @Override
+  protected int getDefaultBufferSize() {
+    return 256 * 1024;
+  }
+
+  /**
+   * One asynchronous operation per cached channel.
+   */
+  @Override
+  protected int getDefaultConcurrency() {
+    return maxSessions * maxChannels;
+  }
+
+  @Override
+  public String getScheme() {
+    return "sftp";
+  }
+
+  private Session connect(Key key) throws IOException {
     try {
-      Session session = ssh.getSession(username, host, 22);
+      Session session = new JSch().getSession(key.username, key.host, key.port);
 
       Properties config = new Properties();
       config.put("StrictHostKeyChecking", "no");
       config.put("PreferredAuthentications", "publickey,keyboard-interactive,password");
       session.setConfig(config);
-      session.setPassword(password);
+      session.setPassword(key.password);
+      session.setServerAliveInterval((int) keepAlive);
       session.connect();
+      logger.log(Level.CONFIG, "[Sessions] Connected {0}", new Object[] {key});
+      return session;
+    } catch (JSchException e) {
+      throw new IOException(e);
+    }
+  }
 
-      Channel channel = session.openChannel("sftp");
+  /**
+   * Cache identity - the host, port and user (with credentials) a session is authenticated as.
+   */
+  private static class Key {
+    private final String host;
+    private final int port;
+    private final String username;
+    private final String password;
 
-      channel.connect();
-      ChannelSftp client = (ChannelSftp) channel;
+    private Key(String host, int port, String username, String password) {
+      this.host = host;
+      this.port = port;
+      this.username = username;
+      this.password = password;
+    }
 
-      return new SftpSIOFile(client, host, username, password, url.getPath());
-    } catch (JSchException e) {
-      throw new IOException(e);
+    @Override
+    public int hashCode() {
+      int result = host.hashCode();
+      result = 31 * result + port;
+      result = 31 * result + ((username == null) ? 0 : username.hashCode());
+      result = 31 * result + ((password == null) ? 0 : password.hashCode());
+      return result;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+      if (!(obj instanceof Key)) {
+        return false;
+      }
+      Key other = (Key) obj;
+      return host.equals(other.host) && port == other.port && (username == null ? other.username == null : username.equals(other.username))
+          && (password == null ? other.password == null : password.equals(other.password));
+    }
+
+    @Override
+    public String toString() {
+      return username + "@" + host + ":" + port;
     }
   }
 
-  @Override
-  public String getScheme() {
-    return "sftp";
+  /**
+   * <p>
+   * Cached SSH sessions, a small number per {@link Key}, each multiplexing a bounded number of sftp
+   * channels.
+   * 
+   * <p>
+   * Channels are leased for an operation (or the life of a stream) and returned afterwards. Idle
+   * channels (and sessions left without channels) are closed after the idle timeout and sessions
+   * that have died are dropped and replaced on the next lease.
+   */
+  private class SessionCache {
+    private final Map<Key, Host> hosts = new ConcurrentHashMap<Key, Host>();
+    private ScheduledExecutorService evictor;
+
+    private ChannelSftp lease(Key key) throws IOException {
+      Host host = hosts.get(key);
+      if (host == null) {
+        host = hosts.computeIfAbsent(key, Host::new);
+        startEvictor();
+      }
+      return host.lease();
+    }
+
+    private void release(Key key, ChannelSftp channel, boolean reusable) {
+      Host host = hosts.get(key);
+      if (host == null) {
+        channel.disconnect();
+      } else {
+        host.release(channel, reusable);
+      }
+    }
+
+    private synchronized void startEvictor() {
+      if (evictor == null) {
+        evictor = Executors.newSingleThreadScheduledExecutor((r) -> {
+          Thread t = new Thread(r, "SftpPlugin-sessions");
+          t.setDaemon(true);
+          return t;
+        });
+        long period = Math.max(1000, idleTimeout / 2);
+        evictor.scheduleWithFixedDelay(() -> {
+          for (Host host : hosts.values()) {
+            try {
+              host.evict(false);
+            } catch (RuntimeException e) {
+              logger.log(Level.WARNING, "[Sessions] Eviction failed.", e);
+            }
+          }
+        }, period, period, TimeUnit.MILLISECONDS);
+      }
+    }
+
+    private synchronized void shutdown() {
+      if (evictor != null) {
+        evictor.shutdownNow();
+        evictor = null;
+      }
+      for (Host host : hosts.values()) {
+        host.evict(true);
+      }
+      hosts.clear();
+    }
+
+  }
+
+  private static class Idle {
+    private final ChannelSftp channel;
+    private final long since = System.currentTimeMillis();
+
+    private Idle(ChannelSftp channel) {
+      this.channel = channel;
+    }
+  }
+
+  /**
+   * A session and its channels - open counts both idle and leased channels.
+   */
+  private static class Connection {
+    private final Session session;
+    private final Deque<Idle> idle = new ArrayDeque<Idle>();
+    private int open = 0;
+    private long lastUsed = System.currentTimeMillis();
+
+    private Connection(Session session) {
+      this.session = session;
+    }
+  }
+
+  /**
+   * The sessions for a single key.
+   */
+  private class Host {
+    private final Key key;
+    private final List<Connection> connections = new ArrayList<Connection>();
+    private int connecting = 0;
+
+    private Host(Key key) {
+      this.key = key;
+    }
+
+    private ChannelSftp lease() throws IOException {
+      long deadline = System.currentTimeMillis() + leaseTimeout;
+      while (true) {
+        Connection connection = null;
+        ChannelSftp channel = null;
+        synchronized (this) {
+          prune();
+          for (Connection c : connections) {
+            if (!c.idle.isEmpty()) {
+              connection = c;
+              channel = c.idle.pollFirst().channel;
+              break;
+            }
+          }
+          if (connection == null) {
+            for (Connection c : connections) {
+              if (c.open < maxChannels && c.session.isConnected()) {
+                connection = c;
+                c.open++;
+                break;
+              }
+            }
+          }
+          if (connection == null) {
+            if (connections.size() + connecting < maxSessions) {
+              connecting++;
+            } else {
+              await(deadline);
+              continue;
+            }
+          }
+        }
+        if (channel != null) {
+          if (channel.isConnected()) {
+            return channel;
+          }
+          release(channel, false);
+          continue;
+        }
+        if (connection == null) {
+          connection = open();
+        }
+        try {
+          ChannelSftp opened = (ChannelSftp) connection.session.openChannel("sftp");
+          opened.connect();
+          return opened;
+        } catch (JSchException e) {
+          synchronized (this) {
+            connection.open--;
+            notifyAll();
+          }
+          if (connection.session.isConnected()) {
+            throw new IOException(e);
+          }
+          // The session died under us - drop it and try again.
+          logger.log(Level.FINE, "[Sessions] Session lost for " + key, e);
+        }
+      }
+    }
+
+    /**
+     * Connect a new session (outside the lock) and register it with one channel reserved.
+     */
+    private Connection open() throws IOException {
+      Session session;
+      try {
+        session = connect(key);
+      } catch (IOException | RuntimeException e) {
+        synchronized (this) {
+          connecting--;
+          notifyAll();
+        }
+        throw e;
+      }
+      Connection connection = new Connection(session);
+      connection.open = 1;
+      synchronized (this) {
+        connecting--;
+        connections.add(connection);
+      }
+      return connection;
+    }
+
+    private void await(long deadline) throws IOException {
+      long wait = deadline - System.currentTimeMillis();
+      if (wait <= 0) {
+        throw new IOException("Timed out waiting for an sftp channel to " + key);
+      }
+      try {
+        wait(wait);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new InterruptedIOException("Interrupted waiting for an sftp channel to " + key);
+      }
+    }
+
+    /**
+     * Drop the idle channels of dead sessions (and the sessions once nothing is leased on them).
+     */
+    private void prune() {
+      for (Iterator<Connection> i = connections.iterator(); i.hasNext();) {
+        Connection c = i.next();
+        if (!c.session.isConnected()) {
+          for (Idle idle : c.idle) {
+            idle.channel.disconnect();
+          }
+          c.open -= c.idle.size();
+          c.idle.clear();
+          if (c.open <= 0) {
+            i.remove();
+          }
+        }
+      }
+    }
+
+    private synchronized void release(ChannelSftp channel, boolean reusable) {
+      Connection connection = null;
+      for (Connection c : connections) {
+        if (owns(c, channel)) {
+          connection = c;
+          break;
+        }
+      }
+      if (connection == null) {
+        channel.disconnect();
+        return;
+      }
+      connection.lastUsed = System.currentTimeMillis();
+      if (reusable && channel.isConnected() && connection.session.isConnected()) {
+        connection.idle.addFirst(new Idle(channel));
+      } else {
+        channel.disconnect();
+        connection.open--;
+        prune();
+      }
+      notifyAll();
+    }
+
+    private boolean owns(Connection connection, ChannelSftp channel) {
+      try {
+        return channel.getSession() == connection.session;
+      } catch (JSchException e) {
+        return false;
+      }
+    }
+
+    /**
+     * Close idle channels and empty sessions that have expired (or all of them).
+     */
+    private void evict(boolean all) {
+      List<ChannelSftp> channels = new ArrayList<ChannelSftp>();
+      List<Session> sessions = new ArrayList<Session>();
+      long now = System.currentTimeMillis();
+      synchronized (this) {
+        prune();
+        for (Iterator<Connection> i = connections.iterator(); i.hasNext();) {
+          Connection c = i.next();
+          for (Iterator<Idle> j = c.idle.iterator(); j.hasNext();) {
+            Idle idle = j.next();
+            if (all || now - idle.since > idleTimeout) {
+              channels.add(idle.channel);
+              j.remove();
+              c.open--;
+            }
+          }
+          if (c.open <= 0 && (all || now - c.lastUsed > idleTimeout)) {
+            sessions.add(c.session);
+            i.remove();
+          }
+        }
+        notifyAll();
+      }
+      for (ChannelSftp channel : channels) {
+        channel.disconnect();
+      }
+      for (Session session : sessions) {
+        session.disconnect();
+        logger.log(Level.CONFIG, "[Sessions] Disconnected {0}", new Object[] {key});
+      }
+    }
+
+  }
+
+  /**
+   * A unit of work against a leased channel.
+   */
+  @FunctionalInterface
+  private interface Call<T> {
+
+    public T call(ChannelSftp client) throws SftpException, IOException;
+
   }
 
   public class SftpSIOFile extends File {
-    private ChannelSftp client;
     protected String path;
     protected String name;
     protected SftpATTRS stats;
@@ -82,32 +543,64 @@ public class SftpPlugin extends Plugin {
     private String username;
     private String password;
     private String host;
+    private int port;
+    private Key key;
 
-    public SftpSIOFile(ChannelSftp client, String host, String username, String password, String path) throws IOException {
-      this.client = client;
+    public SftpSIOFile(String host, String username, String password, String path) throws IOException {
+      this(host, 22, username, password, path);
+    }
+
+    public SftpSIOFile(String host, int port, String username, String password, String path) throws IOException {
       this.path = path;
       this.host = host;
+      this.port = port;
       this.username = username;
       this.password = password;
+      this.key = new Key(host, port, username, password);
       init();
     }
 
-    private void init() throws IOException {
+    /**
+     * For directory entries - the stats come from the listing.
+     */
+    private SftpSIOFile(String host, int port, String username, String password, String path, SftpATTRS stats) throws IOException {
+      this.path = path;
+      this.host = host;
+      this.port = port;
+      this.username = username;
+      this.password = password;
+      this.key = new Key(host, port, username, password);
+      this.stats = stats;
+      setAttributes(snapshot());
+    }
+
+    /**
+     * Run the call with a channel leased from the session cache - the channel is returned
+     * afterwards (or closed if the call failed with anything other than an sftp status).
+     */
+    private <T> T execute(Call<T> call) throws IOException {
+      ChannelSftp client = cache.lease(key);
+      boolean reusable = false;
       try {
-        this.stats = client.lstat(path);
+        T result = call.call(client);
+        reusable = true;
+        return result;
       } catch (SftpException e) {
-        this.stats = null;
+        reusable = true;
+        throw new IOException(e);
+      } finally {
+        cache.release(key, client, reusable);
       }
     }
 
-    private void checkConnect() throws IOException {
-      if (!client.isConnected()) {
+    private void init() throws IOException {
+      this.stats = execute((client) -> {
         try {
-          client.connect();
-        } catch (JSchException e) {
-          throw new IOException(e);
+          return client.lstat(path);
+        } catch (SftpException e) {
+          return null;
         }
-      }
+      });
     }
 
     public void setLastModified(long time) throws IOException {
@@ -115,11 +608,10 @@ public class SftpPlugin extends Plugin {
         int modTime = (int) (time / 1000L);
         stats.setACMODTIME(modTime, modTime);
         stats.setPERMISSIONS(Integer.parseInt("777", 8));
-        try {
+        execute((client) -> {
           client.setStat(path, stats);
-        } catch (SftpException e) {
-          throw new IOException(e);
-        }
+          return null;
+        });
       }
     }
 
@@ -143,89 +635,143 @@ public class SftpPlugin extends Plugin {
       if (stats == null) {
         return false;
       }
-      this.checkConnect();
-      try {
+      execute((client) -> {
         if (isDirectory()) {
           client.rmdir(path);
         } else {
           client.rm(path);
         }
-      } catch (SftpException e) {
-        throw new IOException(e);
-      }
+        return null;
+      });
       init();
       return stats == null;
     }
 
     public boolean mkdir() throws IOException {
-      this.checkConnect();
-      try {
+      execute((client) -> {
         client.mkdir(path);
         client.chmod(Integer.parseInt("777", 8), path);
-      } catch (SftpException e) {
-        throw new IOException(e);
-      }
+        return null;
+      });
       init();
       return true;
     }
 
     public boolean mkdirs() throws IOException {
       String[] dirs = path.split("/");
-      String dirString = "";
-      for (int d = 0; d < dirs.length; d++) {
-        dirString = dirString + dirs[d] + "/";
-        try {
-          client.mkdir(dirString);
-          client.chmod(Integer.parseInt("777", 8), dirString);
-        } catch (SftpException e) {
-          // throw new IOException(e);
+      execute((client) -> {
+        String dirString = "";
+        for (int d = 0; d < dirs.length; d++) {
+          dirString = dirString + dirs[d] + "/";
+          try {
+            client.mkdir(dirString);
+            client.chmod(Integer.parseInt("777", 8), dirString);
+          } catch (SftpException e) {
+            // throw new IOException(e);
+          }
         }
-        setLastModified(System.currentTimeMillis());
-      }
+        return null;
+      });
+      setLastModified(System.currentTimeMillis());
       init();
       return stats != null;
     }
 
     public File parent() throws IOException {
-      return new SftpSIOFile(client, host, username, password, Plugin.getParentFromPath(path));
+      return new SftpSIOFile(host, port, username, password, Plugin.getParentFromPath(path));
     }
 
     @Override
-    public List<File> list(GrabFilter grab, MoveFilter move, Comparator<File> sorter) throws IOException {
-      ArrayList<File> list = IOList(grab, move, this.path, 0);
-      Collections.sort(list, sorter);
-      return list;
+    protected List<File> children() throws IOException {
+      List<File> children = new ArrayList<File>();
+      try (Listing listing = openChildren()) {
+        File f;
+        while ((f = listing.next()) != null) {
+          children.add(f);
+        }
+      }
+      return children;
     }
 
-
-    private ArrayList<File> IOList(GrabFilter grab, MoveFilter move, String root, int depth) throws IOException {
-      ArrayList<File> retList = new ArrayList<File>();
+    /**
+     * The entries are handed over as the server sends them (the ls runs on a listing thread) through
+     * a bounded queue - the ls waits (holding its channel) while the queue is full, so a lagging
+     * consumer holds one channel rather than an unbounded copy of the directory. Closing the listing
+     * stops the ls at its next entry.
+     */
+    @Override
+    protected Listing openChildren() throws IOException {
+      BlockingQueue<Object> entries = new ArrayBlockingQueue<>(LISTING_QUEUE);
+      AtomicBoolean closed = new AtomicBoolean(false);
+      Object end = new Object();
       if (stats == null || !stats.isDir()) {
-        return retList;
-      }
-      this.checkConnect();
-      try {
-        ChannelSftp.LsEntry f;
-        for (Object o : client.ls(root)) {
-          f = (ChannelSftp.LsEntry) o;
-
-          SftpSIOFile ff = new SftpSIOFile(client, host, username, password, Plugin.cleanPath(root + "/" + f.getFilename()));
-          if (ff.getPath().endsWith(".") || ff.getName().endsWith(".")) {
-            continue;
+        entries.add(end);
+      } else {
+        listers.execute(() -> {
+          try {
+            execute((client) -> {
+              try {
+                client.ls(path, (entry) -> {
+                  return hand(entries, entry, closed) ? ChannelSftp.LsEntrySelector.CONTINUE : ChannelSftp.LsEntrySelector.BREAK;
+                });
+              } catch (SftpException e) {
+                if (!e.getMessage().startsWith("3")) {
+                  throw e;
+                }
+              }
+              return null;
+            });
+          } catch (IOException | RuntimeException e) {
+            hand(entries, e, closed);
+          } finally {
+            hand(entries, end, closed);
           }
-          if (grab.shouldGrab(ff)) {
-            retList.add(ff);
-          }
-          if (ff.isDirectory() && move.shouldMove(ff, depth)) {
-            retList.addAll(IOList(grab, move, ff.path, depth + 1));
+        });
+      }
+      return new Listing() {
+        private boolean done = false;
+
+        @Override
+        public File next() throws IOException {
+          while (!done) {
+            Object o;
+            try {
+              o = entries.take();
+            } catch (InterruptedException e) {
+              Thread.currentThread().interrupt();
+              throw new InterruptedIOException("Interrupted listing " + path);
+            }
+            if (o == end) {
+              done = true;
+            } else if (o instanceof IOException) {
+              throw (IOException) o;
+            } else if (o instanceof RuntimeException) {
+              throw (RuntimeException) o;
+            } else {
+              ChannelSftp.LsEntry f = (ChannelSftp.LsEntry) o;
+              SftpSIOFile ff = new SftpSIOFile(host, port, username, password, Plugin.cleanPath(path + "/" + f.getFilename()), f.getAttrs());
+              if (ff.getPath().endsWith(".") || ff.getName().endsWith(".")) {
+                continue;
+              }
+              return ff;
+            }
           }
+          return null;
         }
-      } catch (SftpException e) {
-        if (!e.getMessage().startsWith("3")) {
-          throw new IOException(e);
+
+        @Override
+        public void close() {
+          // Stops the ls at the next entry (and frees a producer waiting on a full queue).
+          closed.set(true);
+          done = true;
+          entries.clear();
         }
-      }
-      return retList;
+      };
+    }
+
+    @Override
+    protected boolean supportsSegments() {
+      return true;
     }
 
     public String getName() {
@@ -245,32 +791,113 @@ public class SftpPlugin extends Plugin {
     }
 
     protected InputStream read() throws IOException {
-      this.checkConnect();
+      return read(0);
+    }
+
+    /**
+     * Ranged read using an offset get.
+     */
+    @Override
+    protected InputStream read(long offset) throws IOException {
+      ChannelSftp client = cache.lease(key);
       try {
-        return new BufferedInputStream(client.get(getName()));
-      } catch (SftpException e) {
+        client.setBulkRequests(pipelining);
+        return new CloseNotifyInputStream(new BufferedInputStream(client.get(path, null, offset), getBufferSize()), client);
+      } catch (SftpException | JSchException e) {
+        cache.release(key, client, true);
         throw new IOException(e);
+      } catch (RuntimeException e) {
+        cache.release(key, client, false);
+        throw e;
       }
     }
 
     protected OutputStream write() throws IOException {
-      this.checkConnect();
+      return write(0);
+    }
+
+    /**
+     * Continue a file with a RESUME put (which appends at the current remote size - so the offset
+     * has to match it).
+     */
+    @Override
+    protected OutputStream write(long offset) throws IOException {
+      if (offset != 0) {
+        init();
+        if (stats == null || stats.getSize() != offset) {
+          throw new IOException("Cannot resume " + path + " from " + offset + " (it is " + (stats == null ? 0 : stats.getSize()) + " bytes).");
+        }
+      }
+      ChannelSftp client = cache.lease(key);
       try {
-        return new CloseNotifyOutputStream(new BufferedOutputStream(client.put(getName())));
-      } catch (SftpException e) {
+        client.setBulkRequests(pipelining);
+        OutputStream os = (offset == 0) ? client.put(path) : client.put(path, null, ChannelSftp.RESUME, 0);
+        return new CloseNotifyOutputStream(new BufferedOutputStream(os, getBufferSize()), client);
+      } catch (SftpException | JSchException e) {
+        cache.release(key, client, true);
         throw new IOException(e);
+      } catch (RuntimeException e) {
+        cache.release(key, client, false);
+        throw e;
       }
     }
-    
-    public class CloseNotifyOutputStream extends FilterOutputStream {
 
-      protected CloseNotifyOutputStream(OutputStream is) {
+    /**
+     * Returns the leased channel when the stream is closed.
+     */
+    public class CloseNotifyInputStream extends FilterInputStream {
+      private ChannelSftp client;
+
+      protected CloseNotifyInputStream(InputStream is, ChannelSftp client) {
         super(is);
+        this.client = client;
       }
 
       @Override
       public void close() throws IOException {
-        super.close();
+        if (client == null) {
+          return;
+        }
+        ChannelSftp c = client;
+        client = null;
+        boolean reusable = false;
+        try {
+          super.close();
+          reusable = true;
+        } finally {
+          cache.release(key, c, reusable);
+        }
+      }
+
+    }
+
+    public class CloseNotifyOutputStream extends FilterOutputStream {
+      private ChannelSftp client;
+
+      protected CloseNotifyOutputStream(OutputStream os, ChannelSftp client) {
+        super(os);
+        this.client = client;
+      }
+
+      @Override
+      public void write(byte[] b, int off, int len) throws IOException {
+        out.write(b, off, len);
+      }
+
+      @Override
+      public void close() throws IOException {
+        if (client == null) {
+          return;
+        }
+        ChannelSftp c = client;
+        client = null;
+        boolean reusable = false;
+        try {
+          super.close();
+          reusable = true;
+        } finally {
+          cache.release(key, c, reusable);
+        }
         init();
       }
 
@@ -283,27 +910,22 @@ public class SftpPlugin extends Plugin {
       if (!SftpSIOFile.class.equals(file.getClass())) {
         throw new IOException("Cross scheme rename not implemented (or allowed).");
       }
-      this.checkConnect();
       String oPath = ((SftpSIOFile) file).path;
-      try {
+      execute((client) -> {
         client.rename(path, oPath);
-      } catch (SftpException e) {
-        throw new IOException(e);
-      }
+        return null;
+      });
       this.path = oPath;
       init();
       return true;
     }
 
+    /**
+     * Nothing is held by the file itself - channels are leased from the plugin session cache for
+     * each operation (see {@link SftpPlugin#shutdown()}).
+     */
     public void dispose() {
-      try {
-        client.getSession().disconnect();
-      } catch (JSchException e) {
-        logger.log(Level.SEVERE, null, e);
-      }
-      client.disconnect();
-
-      logger.log(Level.CONFIG, "File[{0}] Logged out.", new Object[] {getScheme()});
+      // Not required
     }
 
     public boolean isVisible() {
@@ -311,7 +933,15 @@ public class SftpPlugin extends Plugin {
     }
 
     public File create(String path) throws IOException {
-      return new SftpSIOFile(client, host, username, password, Plugin.cleanPath(this.path + path));
+      return new SftpSIOFile(host, port, username, password, Plugin.cleanPath(this.path + path));
+    }
+
+    /**
+     * Without the lstat that create does.
+     */
+    @Override
+    protected File createNew(String path) throws IOException {
+      return new SftpSIOFile(host, port, username, password, Plugin.cleanPath(this.path + path), null);
     }
 
     public String stringMarshal() {
@@ -332,10 +962,16 @@ public class SftpPlugin extends Plugin {
       return 0;
     }
 
+    @Override
+    protected FileAttributes readAttributes() throws IOException {
+      init();
+      return snapshot();
+    }
+
     @Override
     public URI getURI() {
       try {
-        return new URI("sftp", username + ":" + password, host, 22, path, null, null);
+        return new URI("sftp", username + ":" + password, host, port, path, null, null);
       } catch (URISyntaxException e) {
         e.printStackTrace();
         return null;
@@ -5,18 +5,19 @@ import java.io.InputStream;
 import java.io.OutputStream;
 import java.net.URI;
 import java.net.URISyntaxException;
+import java.nio.channels.SeekableByteChannel;
 import java.util.ArrayList;
-import java.util.Collections;
-import java.util.Comparator;
 import java.util.List;
 
 import org.keeber.simpleio.File;
+import org.keeber.simpleio.FileAttributes;
+import org.keeber.simpleio.RangedChannel;
 import org.keeber.simpleio.File.Plugin;
 
-import jcifs.smb.SmbException;
 import jcifs.smb.SmbFile;
 import jcifs.smb.SmbFileInputStream;
 import jcifs.smb.SmbFileOutputStream;
+import jcifs.smb.SmbRandomAccessFile;
 
 public class SmbPlugin extends Plugin {
   public static final String FILEPROTOCOL = "file";
@@ -54,6 +55,45 @@ public class SmbPlugin extends Plugin {
       return new SmbFileOutputStream(ref);
     }
 
+    /**
+     * Random access with SMB positioned reads.
+     */
+    @Override
+    protected SeekableByteChannel channel() throws IOException {
+      final SmbRandomAccessFile raf = new SmbRandomAccessFile(ref, "r");
+      return new RangedChannel(raf.length(), getReadAhead()) {
+
+        @Override
+        protected int read(long position, byte[] b, int off, int len) throws IOException {
+          raf.seek(position);
+          return raf.read(b, off, len);
+        }
+
+        @Override
+        protected void release() throws IOException {
+          raf.close();
+        }
+
+      };
+    }
+
+    @Override
+    protected OutputStream write(long offset) throws IOException {
+      if (offset == 0) {
+        return write();
+      }
+      SmbRandomAccessFile raf = new SmbRandomAccessFile(ref, "rw");
+      try {
+        if (raf.length() < offset) {
+          throw new IOException("Cannot write " + ref + " from " + offset + " (it is only " + raf.length() + " bytes).");
+        }
+        raf.setLength(offset);
+      } finally {
+        raf.close();
+      }
+      return new SmbFileOutputStream(ref, true);
+    }
+
     @Override
     public long getLastModified() throws IOException {
       return ref.lastModified();
@@ -95,35 +135,27 @@ public class SmbPlugin extends Plugin {
     }
 
     @Override
-    public List<File> list(GrabFilter grab, MoveFilter move, Comparator<File> sorter) throws IOException {
-      List<File> list;
-      try {
-        list = IOList(grab, move, ref, 0);
-      } catch (SmbException e) {
-        throw new IOException(e);
-      }
-      Collections.sort(list, sorter);
-      return list;
-    }
-
-
-    private ArrayList<File> IOList(GrabFilter grab, MoveFilter move, SmbFile root, int depth) throws SmbException, IOException {
-      ArrayList<File> retList = new ArrayList<File>();
-      SmbFile[] list;
-      if (root.canRead()) {
-        list = root.listFiles();
+    protected List<File> children() throws IOException {
+      List<File> children = new ArrayList<File>();
+      if (ref.canRead()) {
+        SmbFile[] list = ref.listFiles();
         if (list != null) {
           for (SmbFile f : list) {
-            if (grab.shouldGrab(new SmbSIOFile(f))) {
-              retList.add(new SmbSIOFile(f));
-            }
-            if (f.isDirectory() && move.shouldMove(new SmbSIOFile(f), depth)) {
-              retList.addAll(IOList(grab, move, f, depth + 1));
-            }
+            // The FIND response attributes are still cached by jcifs.
+            SmbSIOFile file = new SmbSIOFile(f);
+            file.setAttributes(file.snapshot());
+            children.add(file);
           }
         }
       }
-      return retList;
+      return children;
+    }
+
+    @Override
+    protected FileAttributes readAttributes() throws IOException {
+      // A new SmbFile has no cached attributes.
+      ref = new SmbFile(ref.toString());
+      return snapshot();
     }
 
     @Override
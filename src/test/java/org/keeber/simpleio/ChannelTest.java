@@ -0,0 +1,297 @@
+package org.keeber.simpleio;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.channels.NonWritableChannelException;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Random access channels - a slice read without streaming from the start, small reads served from
+ * the read-ahead, and the same bytes as the file wherever they are read from.
+ */
+public class ChannelTest {
+  private static final int SIZE = 8 * 1024 * 1024;
+
+  private static byte[] content;
+  private Ranged plugin;
+
+  @Before
+  public void setUp() {
+    if (content == null) {
+      content = new byte[SIZE];
+      new Random(14).nextBytes(content);
+    }
+    plugin = new Ranged();
+    File.addPlugin(plugin);
+  }
+
+  private SeekableByteChannel open() throws IOException {
+    return plugin.new Remote().open(File.CHANNEL);
+  }
+
+  private static byte[] read(SeekableByteChannel channel, long position, int length) throws IOException {
+    ByteBuffer buffer = ByteBuffer.allocate(length);
+    channel.position(position);
+    while (buffer.hasRemaining() && channel.read(buffer) > 0) {
+      // Until full.
+    }
+    return Arrays.copyOf(buffer.array(), buffer.position());
+  }
+
+  @Test
+  public void testTrailerOnly() throws Exception {
+    try (SeekableByteChannel channel = open()) {
+      assertEquals(SIZE, channel.size());
+      assertArrayEquals(Arrays.copyOfRange(content, SIZE - 4096, SIZE), read(channel, SIZE - 4096, 4096));
+      assertEquals(-1, channel.read(ByteBuffer.allocate(10)));
+    }
+    assertEquals(Arrays.asList((long) SIZE - 4096), plugin.offsets);
+    assertEquals(4096, plugin.read.get());
+  }
+
+  @Test
+  public void testRandomReads() throws Exception {
+    Random random = new Random(3);
+    try (SeekableByteChannel channel = open()) {
+      for (int i = 0; i < 200; i++) {
+        int position = random.nextInt(SIZE);
+        // Some smaller and some larger than the read-ahead.
+        int length = Math.min(SIZE - position, random.nextBoolean() ? random.nextInt(100) + 1 : random.nextInt(200 * 1024) + 1);
+        assertArrayEquals(Arrays.copyOfRange(content, position, position + length), read(channel, position, length));
+      }
+    }
+    assertEquals(plugin.opened.get(), plugin.closed.get());
+  }
+
+  @Test
+  public void testSmallReadsFromReadAhead() throws Exception {
+    try (SeekableByteChannel channel = open()) {
+      for (int i = 0; i < 1000; i++) {
+        read(channel, i * 16, 16);
+      }
+    }
+    // 16000 bytes fit the 64KB read-ahead - a single ranged read.
+    assertEquals(1, plugin.opened.get());
+    assertTrue("calls " + plugin.calls.get(), plugin.calls.get() < 10);
+
+    plugin.calls.set(0);
+    plugin.setReadAhead(0);
+    try (SeekableByteChannel channel = open()) {
+      for (int i = 0; i < 1000; i++) {
+        read(channel, i * 16, 16);
+      }
+    }
+    assertTrue("calls " + plugin.calls.get(), plugin.calls.get() >= 1000);
+  }
+
+  @Test
+  public void testBackwardsReopens() throws Exception {
+    try (SeekableByteChannel channel = open()) {
+      read(channel, 1024 * 1024, 200 * 1024);
+      read(channel, 0, 200 * 1024);
+    }
+    assertEquals(Arrays.asList(1024L * 1024, 0L), plugin.offsets);
+    assertEquals(2, plugin.closed.get());
+  }
+
+  @Test
+  public void testReadOnly() throws Exception {
+    try (SeekableByteChannel channel = open()) {
+      channel.write(ByteBuffer.wrap(new byte[1]));
+      fail("The channel was written.");
+    } catch (NonWritableChannelException e) {
+      // Expected.
+    }
+  }
+
+  @Test
+  public void testLocalChannel() throws Exception {
+    Path path = Files.createTempFile("channel", ".bin");
+    try {
+      Files.write(path, content);
+      try (SeekableByteChannel channel = File.resolve(path.toString()).open(File.CHANNEL)) {
+        assertEquals(SIZE, channel.size());
+        assertArrayEquals(Arrays.copyOfRange(content, 5000000, 5004096), read(channel, 5000000, 4096));
+      }
+    } finally {
+      Files.delete(path);
+    }
+  }
+
+  /**
+   * A scheme serving the content from memory by ranged reads - counting the ranges opened and the
+   * bytes sent.
+   */
+  static class Ranged extends File.Plugin {
+    final List<Long> offsets = new CopyOnWriteArrayList<>();
+    final AtomicInteger opened = new AtomicInteger();
+    final AtomicInteger closed = new AtomicInteger();
+    final AtomicInteger calls = new AtomicInteger();
+    final AtomicLong read = new AtomicLong();
+
+    @Override
+    protected File resolve(URI uri) {
+      return new Remote();
+    }
+
+    @Override
+    public String getScheme() {
+      return "ranged";
+    }
+
+    class Remote extends File {
+
+      @Override
+      protected InputStream read() throws IOException {
+        return read(0);
+      }
+
+      @Override
+      protected InputStream read(long offset) throws IOException {
+        offsets.add(offset);
+        opened.incrementAndGet();
+        return new FilterInputStream(new ByteArrayInputStream(content, (int) offset, SIZE - (int) offset)) {
+
+          @Override
+          public int read(byte[] b, int off, int len) throws IOException {
+            calls.incrementAndGet();
+            int n = super.read(b, off, len);
+            if (n > 0) {
+              read.addAndGet(n);
+            }
+            return n;
+          }
+
+          @Override
+          public void close() throws IOException {
+            closed.incrementAndGet();
+          }
+        };
+      }
+
+      @Override
+      protected OutputStream write() throws IOException {
+        throw new IOException("Read only.");
+      }
+
+      @Override
+      public long getLastModified() {
+        return 0;
+      }
+
+      @Override
+      public void setLastModified(long time) {
+        // Fixed.
+      }
+
+      @Override
+      public long length() {
+        return SIZE;
+      }
+
+      @Override
+      public boolean isDirectory() {
+        return false;
+      }
+
+      @Override
+      public boolean isFile() {
+        return true;
+      }
+
+      @Override
+      public boolean isVisible() {
+        return true;
+      }
+
+      @Override
+      public boolean exists() {
+        return true;
+      }
+
+      @Override
+      public File parent() {
+        return null;
+      }
+
+      @Override
+      public String getName() {
+        return "archive.zip";
+      }
+
+      @Override
+      public String getBaseName() {
+        return "archive";
+      }
+
+      @Override
+      public String getExtension() {
+        return "zip";
+      }
+
+      @Override
+      public String getPath() {
+        return "/archive.zip";
+      }
+
+      @Override
+      public URI getURI() {
+        return URI.create("ranged://host/archive.zip");
+      }
+
+      @Override
+      public boolean delete() {
+        return false;
+      }
+
+      @Override
+      public boolean mkdir() {
+        return false;
+      }
+
+      @Override
+      public boolean mkdirs() {
+        return false;
+      }
+
+      @Override
+      public boolean rename(File file) {
+        return false;
+      }
+
+      @Override
+      public File create(String path) {
+        return null;
+      }
+
+      @Override
+      public void dispose() {
+        // Nothing held.
+      }
+
+    }
+
+  }
+
+}
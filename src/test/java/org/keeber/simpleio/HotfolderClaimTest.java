@@ -0,0 +1,132 @@
+package org.keeber.simpleio;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Several hotfolders (standing in for nodes) sharing one local directory - each file must reach
+ * exactly one subscriber.
+ */
+public class HotfolderClaimTest {
+  private static final int FILES = 300;
+
+  private Path folder;
+  private final List<Hotfolder> nodes = new ArrayList<>();
+  private final Map<String, Integer> dispatched = new ConcurrentHashMap<>();
+  private final List<String> misplaced = new CopyOnWriteArrayList<>();
+
+  @Before
+  public void setUp() throws IOException {
+    folder = Files.createTempDirectory("claims");
+    Files.createDirectories(folder.resolve("sub"));
+    for (int i = 0; i < FILES; i++) {
+      Files.write(folder.resolve((i % 3 == 0 ? "sub/" : "") + "file" + i + ".txt"), "content".getBytes());
+    }
+  }
+
+  @After
+  public void tearDown() throws IOException {
+    for (Hotfolder node : nodes) {
+      node.setRunning(false);
+    }
+    try (Stream<Path> paths = Files.walk(folder)) {
+      paths.sorted((a, b) -> b.compareTo(a)).forEach((path) -> path.toFile().delete());
+    }
+  }
+
+  private Hotfolder node(int index) throws IOException {
+    String name = "node" + index;
+    Hotfolder node = new Hotfolder(name).setFolder(File.resolve(folder.toString() + "/")).setFilters(File.filters.VISIBLE_FILES, File.filters.VISIBLE_DIRECTORIES).setTimes(100, TimeUnit.MILLISECONDS, 2).setWatching(false).setClaim(name);
+    node.setSubscriber(new Hotfolder.Subscriber() {
+
+      @Override
+      public void onAdded(File file) {
+        if (!file.getPath().contains("/.claims/" + name + "/")) {
+          misplaced.add(file.getPath());
+        }
+        dispatched.merge(file.getName(), 1, Integer::sum);
+        try {
+          file.delete();
+        } catch (IOException e) {
+          throw new RuntimeException(e);
+        }
+      }
+
+    });
+    nodes.add(node);
+    return node;
+  }
+
+  private void await() throws InterruptedException {
+    long end = System.currentTimeMillis() + 20000;
+    while (dispatched.size() < FILES && System.currentTimeMillis() < end) {
+      Thread.sleep(50);
+    }
+    // Give any duplicate a chance to show.
+    Thread.sleep(500);
+  }
+
+  private void assertOnce() throws IOException {
+    assertEquals(FILES, dispatched.size());
+    for (Map.Entry<String, Integer> entry : dispatched.entrySet()) {
+      assertEquals(entry.getKey(), 1, (int) entry.getValue());
+    }
+    assertTrue(misplaced.toString(), misplaced.isEmpty());
+    try (Stream<Path> paths = Files.walk(folder)) {
+      assertEquals(0, paths.filter(Files::isRegularFile).count());
+    }
+  }
+
+  @Test
+  public void testRacingNodes() throws Exception {
+    for (int i = 0; i < 3; i++) {
+      node(i);
+    }
+    for (Hotfolder node : nodes) {
+      node.setRunning(true);
+    }
+    await();
+    assertOnce();
+  }
+
+  @Test
+  public void testPartitionedNodes() throws Exception {
+    for (int i = 0; i < 3; i++) {
+      node(i).setPartition(i, 3, -1, TimeUnit.MILLISECONDS);
+    }
+    for (Hotfolder node : nodes) {
+      node.setRunning(true);
+    }
+    await();
+    assertOnce();
+  }
+
+  @Test
+  public void testStealFromStoppedNode() throws Exception {
+    // The third node never starts - its partition is stolen.
+    for (int i = 0; i < 2; i++) {
+      node(i).setPartition(i, 3, 1, TimeUnit.SECONDS);
+    }
+    for (Hotfolder node : nodes) {
+      node.setRunning(true);
+    }
+    await();
+    assertOnce();
+  }
+
+}
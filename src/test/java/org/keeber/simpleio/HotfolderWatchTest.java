@@ -0,0 +1,99 @@
+package org.keeber.simpleio;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Watched hotfolders on a manager - one watch thread between them, each folder's events reaching its
+ * own hotfolder.
+ */
+public class HotfolderWatchTest {
+  private static final int FOLDERS = 4;
+
+  private final List<Path> folders = new ArrayList<>();
+  private final Set<String> dispatched = ConcurrentHashMap.newKeySet();
+  private HotfolderManager manager;
+
+  @Before
+  public void setUp() throws IOException {
+    manager = new HotfolderManager(2);
+    for (int i = 0; i < FOLDERS; i++) {
+      Path folder = Files.createTempDirectory("watched");
+      folders.add(folder);
+      String name = "folder" + i;
+      Hotfolder hotfolder = new Hotfolder(name).setFolder(File.resolve(folder.toString() + "/")).setFilters(File.filters.VISIBLE_FILES, File.filters.ONLY_THIS_DIRECTORY).setWatching(true).setWatchInterval(50, TimeUnit.MILLISECONDS).setRescanInterval(1, TimeUnit.HOURS).setSettle(1);
+      hotfolder.setSubscriber(new Hotfolder.Subscriber() {
+
+        @Override
+        public void onAdded(File file) {
+          dispatched.add(name + "/" + file.getName());
+        }
+
+      });
+      manager.add(hotfolder);
+    }
+  }
+
+  @After
+  public void tearDown() throws IOException {
+    manager.shutdown();
+    for (Path folder : folders) {
+      try (Stream<Path> paths = Files.walk(folder)) {
+        paths.sorted(Comparator.reverseOrder()).forEach((path) -> path.toFile().delete());
+      }
+    }
+  }
+
+  private static long watchThreads() {
+    return Thread.getAllStackTraces().keySet().stream().filter((t) -> t.isAlive() && t.getName().contains("watch")).count();
+  }
+
+  @Test
+  public void testOneWatchThread() throws Exception {
+    long before = watchThreads();
+    manager.start();
+    // Let the first passes run before the files arrive (so the events find them).
+    Thread.sleep(300);
+    assertEquals(1, watchThreads() - before);
+    for (int i = 0; i < FOLDERS; i++) {
+      Files.write(folders.get(i).resolve("file.txt"), "content".getBytes());
+    }
+    long end = System.currentTimeMillis() + 20000;
+    while (dispatched.size() < FOLDERS && System.currentTimeMillis() < end) {
+      Thread.sleep(50);
+    }
+    for (int i = 0; i < FOLDERS; i++) {
+      assertTrue(String.valueOf(dispatched), dispatched.contains("folder" + i + "/file.txt"));
+    }
+    manager.shutdown();
+    Thread.sleep(200);
+    assertEquals(0, watchThreads() - before);
+  }
+
+  @Test
+  public void testScansPerHostAtLeastOne() {
+    try {
+      manager.setMaxScansPerHost(0);
+      fail("No scans per host was allowed.");
+    } catch (IllegalArgumentException e) {
+      assertEquals(2, manager.getMaxScansPerHost());
+    }
+  }
+
+}
@@ -0,0 +1,166 @@
+package org.keeber.simpleio;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.stream.Stream;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * The hotfolder journal - replayed into fresh trackers, cut back at a torn last record, compacted
+ * into the processed index, and refusing an index whose count does not fit the file.
+ */
+public class JournalTest {
+  private Path directory;
+
+  @Before
+  public void setUp() throws IOException {
+    directory = Files.createTempDirectory("journal");
+  }
+
+  @After
+  public void tearDown() throws IOException {
+    try (Stream<Path> paths = Files.walk(directory)) {
+      paths.sorted(Comparator.reverseOrder()).forEach((path) -> path.toFile().delete());
+    }
+  }
+
+  @Test
+  public void testReplay() throws Exception {
+    Journal journal = new Journal(directory);
+    Trackers trackers = new Trackers();
+    journal.replay(trackers);
+    trackers.setJournal(journal);
+    trackers.check("a.txt", 10, 100, "a.txt");
+    trackers.check("b.txt", 20, 200, "b.txt");
+    trackers.check("c.txt", 30, 300, "c.txt");
+    trackers.launch(trackers.key("a.txt"));
+    trackers.remove(trackers.key("c.txt"));
+    journal.close();
+
+    trackers = new Trackers();
+    journal = new Journal(directory);
+    journal.replay(trackers);
+    assertEquals(2, trackers.size());
+    assertEquals(-1, trackers.check("a.txt", 10, 100, null));
+    // Unchanged since the record - another check.
+    assertEquals(1, trackers.check("b.txt", 20, 200, null));
+    assertFalse(trackers.contains(trackers.key("c.txt")));
+    journal.close();
+  }
+
+  @Test
+  public void testTornRecordDropped() throws Exception {
+    Journal journal = new Journal(directory);
+    Trackers trackers = new Trackers();
+    journal.replay(trackers);
+    trackers.setJournal(journal);
+    trackers.check("a.txt", 10, 100, "a.txt");
+    journal.close();
+    long whole = Files.size(directory.resolve("journal.log"));
+    // A record cut off in the middle of its path - the bytes there are not valid modified UTF-8.
+    try (DataOutputStream os = new DataOutputStream(new FileOutputStream(directory.resolve("journal.log").toFile(), true))) {
+      os.writeByte(Journal.TRACK);
+      os.writeLong(Trackers.hash("b.txt"));
+      os.writeLong(1);
+      os.writeInt(0);
+      os.writeShort(2);
+      os.writeByte(0xC0);
+      os.writeByte(0x00);
+    }
+
+    trackers = new Trackers();
+    journal = new Journal(directory);
+    journal.replay(trackers);
+    assertEquals(whole, Files.size(directory.resolve("journal.log")));
+    assertEquals(1, trackers.size());
+    assertFalse(trackers.contains(trackers.key("b.txt")));
+    // Appended after the last whole record.
+    trackers.setJournal(journal);
+    trackers.check("c.txt", 30, 300, "c.txt");
+    journal.close();
+
+    trackers = new Trackers();
+    journal = new Journal(directory);
+    journal.replay(trackers);
+    assertEquals(2, trackers.size());
+    assertTrue(trackers.contains(trackers.key("c.txt")));
+    journal.close();
+  }
+
+  @Test
+  public void testTornEndOfPath() throws Exception {
+    Journal journal = new Journal(directory);
+    Trackers trackers = new Trackers();
+    journal.replay(trackers);
+    trackers.setJournal(journal);
+    trackers.check("a.txt", 10, 100, "a.txt");
+    trackers.check("b.txt", 20, 200, "b.txt");
+    journal.close();
+    Path log = directory.resolve("journal.log");
+    byte[] bytes = Files.readAllBytes(log);
+    Files.write(log, Arrays.copyOf(bytes, bytes.length - 2));
+
+    trackers = new Trackers();
+    journal = new Journal(directory);
+    journal.replay(trackers);
+    assertEquals(1, trackers.size());
+    assertTrue(trackers.contains(trackers.key("a.txt")));
+    journal.close();
+  }
+
+  @Test
+  public void testCompactedIntoIndex() throws Exception {
+    Journal journal = new Journal(directory);
+    Trackers trackers = new Trackers();
+    journal.replay(trackers);
+    trackers.setJournal(journal);
+    trackers.check("a.txt", 10, 100, "a.txt");
+    trackers.check("b.txt", 20, 200, "b.txt");
+    trackers.launch(trackers.key("a.txt"));
+    trackers.compact();
+    journal.close();
+
+    journal = new Journal(directory);
+    trackers = new Trackers();
+    journal.replay(trackers);
+    trackers.setJournal(journal);
+    // Only the settling file is replayed - the dispatched one is in the index.
+    assertEquals(1, trackers.size());
+    assertTrue(trackers.contains(trackers.key("b.txt")));
+    assertEquals(-1, trackers.check("a.txt", 10, 100, "a.txt"));
+    // Another path is not the one processed.
+    assertEquals(0, trackers.check("a.txt.new", 10, 100, "a.txt.new"));
+    journal.close();
+  }
+
+  @Test
+  public void testCorruptIndexRejected() throws Exception {
+    try (DataOutputStream os = new DataOutputStream(new FileOutputStream(directory.resolve("processed.idx").toFile()))) {
+      os.writeInt(0x53494F4A);
+      os.writeInt(2);
+      // Far more identities than the file holds.
+      os.writeLong(1000);
+      os.writeLong(42);
+    }
+    try {
+      new Journal(directory);
+      fail("The corrupt index was loaded.");
+    } catch (IOException e) {
+      assertTrue(e.getMessage(), e.getMessage().startsWith("Corrupt hotfolder index"));
+    }
+  }
+
+}
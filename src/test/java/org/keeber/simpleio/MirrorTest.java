@@ -0,0 +1,264 @@
+package org.keeber.simpleio;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.net.URI;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.stream.Stream;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Mirror syncs against the manifest - unchanged files skipped, removed files deleted, and an
+ * interrupted sync saving only what it actually did.
+ */
+public class MirrorTest {
+  private static final int FILES = 6;
+
+  private Path source;
+  private Path target;
+  private Path state;
+  private Target plugin;
+  private File manifest;
+  private Mirror mirror;
+
+  @Before
+  public void setUp() throws IOException {
+    source = Files.createTempDirectory("mirror-source");
+    target = Files.createTempDirectory("mirror-target");
+    state = Files.createTempDirectory("mirror-state");
+    for (int i = 0; i < FILES; i++) {
+      Files.write(source.resolve("file" + i + ".txt"), ("content " + i).getBytes());
+    }
+    plugin = new Target();
+    // One operation at a time on the target - the rest queue behind it.
+    plugin.setMaxConcurrency(1);
+    File.addPlugin(plugin);
+    manifest = File.resolve(state.resolve("sync.manifest").toString());
+    mirror = new Mirror(File.resolve(source.toString() + "/"), plugin.new TargetFile(target.toFile()), manifest).setDeletes(true);
+  }
+
+  @After
+  public void tearDown() throws IOException {
+    for (Path root : new Path[] {source, target, state}) {
+      try (Stream<Path> paths = Files.walk(root)) {
+        paths.sorted(Comparator.reverseOrder()).forEach((path) -> path.toFile().delete());
+      }
+    }
+  }
+
+  private long targets() throws IOException {
+    try (Stream<Path> paths = Files.list(target)) {
+      return paths.count();
+    }
+  }
+
+  @Test
+  public void testUnchangedSkipped() throws Exception {
+    assertEquals(FILES, mirror.sync().getFiles());
+    CopyReport report = mirror.sync();
+    assertEquals(0, report.getFiles());
+    assertEquals(FILES, report.getSkipped());
+    Files.write(source.resolve("file0.txt"), "changed content".getBytes());
+    assertEquals(1, mirror.sync().getFiles());
+    assertEquals("changed content", new String(Files.readAllBytes(target.resolve("file0.txt"))));
+  }
+
+  @Test
+  public void testRemovedDeleted() throws Exception {
+    mirror.sync();
+    Files.delete(source.resolve("file1.txt"));
+    assertEquals(1, mirror.sync().getDeleted());
+    assertEquals(FILES - 1, targets());
+    assertEquals(FILES - 1, Manifest.load(manifest).entries().size());
+  }
+
+  @Test
+  public void testInterruptedSyncKeepsPendingDeletes() throws Exception {
+    mirror.sync();
+    for (int i = 1; i < FILES; i++) {
+      Files.delete(source.resolve("file" + i + ".txt"));
+    }
+    plugin.block = new CountDownLatch(1);
+    AtomicReference<Throwable> thrown = new AtomicReference<>();
+    Thread sync = new Thread(() -> {
+      try {
+        mirror.sync();
+      } catch (Throwable e) {
+        thrown.set(e);
+      }
+    });
+    sync.start();
+    assertTrue(plugin.deleting.await(10, TimeUnit.SECONDS));
+    sync.interrupt();
+    Thread.sleep(200);
+    // The delete under way completes - the queued ones are cancelled.
+    plugin.block.countDown();
+    sync.join(10000);
+    assertTrue(String.valueOf(thrown.get()), thrown.get() instanceof InterruptedIOException);
+    assertEquals(FILES - 1, targets());
+    // The kept file and the four deletes that did not happen.
+    assertEquals(FILES - 1, Manifest.load(manifest).entries().size());
+
+    plugin.block = null;
+    assertEquals(FILES - 2, mirror.sync().getDeleted());
+    assertEquals(1, targets());
+  }
+
+  /**
+   * A local target whose deletes can be held until released.
+   */
+  static class Target extends File.Plugin {
+    volatile CountDownLatch block;
+    final CountDownLatch deleting = new CountDownLatch(1);
+
+    @Override
+    protected File resolve(URI uri) {
+      return new TargetFile(new java.io.File(uri.getPath()));
+    }
+
+    @Override
+    public String getScheme() {
+      return "mirrortarget";
+    }
+
+    class TargetFile extends File {
+      private final java.io.File ref;
+
+      TargetFile(java.io.File ref) {
+        this.ref = ref;
+      }
+
+      @Override
+      public boolean delete() throws IOException {
+        CountDownLatch latch = block;
+        if (latch != null) {
+          deleting.countDown();
+          try {
+            latch.await();
+          } catch (InterruptedException e) {
+            throw new InterruptedIOException();
+          }
+        }
+        return ref.delete();
+      }
+
+      @Override
+      protected InputStream read() throws IOException {
+        return new FileInputStream(ref);
+      }
+
+      @Override
+      protected OutputStream write() throws IOException {
+        return new FileOutputStream(ref);
+      }
+
+      @Override
+      public long getLastModified() {
+        return ref.lastModified();
+      }
+
+      @Override
+      public void setLastModified(long time) {
+        ref.setLastModified(time);
+      }
+
+      @Override
+      public long length() {
+        return ref.length();
+      }
+
+      @Override
+      public boolean isDirectory() {
+        return ref.isDirectory();
+      }
+
+      @Override
+      public boolean isFile() {
+        return ref.isFile();
+      }
+
+      @Override
+      public boolean isVisible() {
+        return !ref.isHidden();
+      }
+
+      @Override
+      public boolean exists() {
+        return ref.exists();
+      }
+
+      @Override
+      public File parent() {
+        return new TargetFile(ref.getParentFile());
+      }
+
+      @Override
+      public String getName() {
+        return ref.getName();
+      }
+
+      @Override
+      public String getBaseName() {
+        return ref.getName().replaceFirst("\\.[^.]*$", "");
+      }
+
+      @Override
+      public String getExtension() {
+        return ref.getName().contains(".") ? ref.getName().substring(ref.getName().lastIndexOf('.') + 1) : "";
+      }
+
+      @Override
+      public String getPath() {
+        return ref.getPath() + (ref.isDirectory() ? "/" : "");
+      }
+
+      @Override
+      public URI getURI() {
+        return URI.create("mirrortarget://" + ref.toURI().getPath());
+      }
+
+      @Override
+      public boolean mkdir() {
+        return ref.mkdir();
+      }
+
+      @Override
+      public boolean mkdirs() {
+        return ref.mkdirs();
+      }
+
+      @Override
+      public boolean rename(File file) {
+        return ref.renameTo(((TargetFile) file).ref);
+      }
+
+      @Override
+      public File create(String path) {
+        return new TargetFile(new java.io.File(ref, path));
+      }
+
+      @Override
+      public void dispose() {
+        // Nothing held.
+      }
+
+    }
+
+  }
+
+}
@@ -0,0 +1,254 @@
+package org.keeber.simpleio;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URI;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Resumable copies from a source that drops its streams - each retry carrying on from the length of
+ * the target, and starting again only when the source changes.
+ */
+public class ResumableCopyTest {
+  private static final int SIZE = 4 * 1024 * 1024;
+  private static final int BREAK = 1024 * 1024;
+
+  private byte[] content;
+  private Path target;
+  private Flaky plugin;
+
+  @Before
+  public void setUp() throws IOException {
+    content = new byte[SIZE];
+    new Random(11).nextBytes(content);
+    target = Files.createTempFile("resumable", ".bin");
+    Files.delete(target);
+    plugin = new Flaky();
+    File.addPlugin(plugin);
+  }
+
+  @After
+  public void tearDown() throws IOException {
+    Files.deleteIfExists(target);
+  }
+
+  private void copy(int retries) throws IOException {
+    plugin.new Source().operations.copyTo(File.resolve(target.toString()), new File.CopyOptions().setResume(true).setRetries(retries, 10, TimeUnit.MILLISECONDS));
+  }
+
+  @Test
+  public void testResumedFromTarget() throws Exception {
+    plugin.failures.set(2);
+    copy(3);
+    assertArrayEquals(content, Files.readAllBytes(target));
+    assertEquals(Arrays.asList(0L, (long) BREAK, 2L * BREAK), plugin.offsets);
+    // Nothing was sent twice.
+    assertEquals(SIZE, plugin.read.get());
+  }
+
+  @Test
+  public void testPartialTargetContinued() throws Exception {
+    Files.write(target, Arrays.copyOf(content, 12345));
+    copy(0);
+    assertArrayEquals(content, Files.readAllBytes(target));
+    assertEquals(Arrays.asList(12345L), plugin.offsets);
+  }
+
+  @Test
+  public void testRetriesBounded() throws Exception {
+    plugin.failures.set(10);
+    try {
+      copy(2);
+      fail("The copy did not give up.");
+    } catch (IOException e) {
+      assertEquals("Dropped", e.getMessage());
+    }
+    assertEquals(3, plugin.offsets.size());
+  }
+
+  @Test
+  public void testChangedSourceRestarts() throws Exception {
+    plugin.failures.set(1);
+    plugin.changeOnFailure = true;
+    copy(3);
+    assertArrayEquals(content, Files.readAllBytes(target));
+    assertEquals(Arrays.asList(0L, 0L), plugin.offsets);
+  }
+
+  /**
+   * A scheme serving the content from memory - the first streams opened are dropped a megabyte in.
+   */
+  class Flaky extends File.Plugin {
+    final AtomicInteger failures = new AtomicInteger();
+    final AtomicLong read = new AtomicLong();
+    final AtomicLong modified = new AtomicLong(1000);
+    final List<Long> offsets = new CopyOnWriteArrayList<>();
+    volatile boolean changeOnFailure = false;
+
+    @Override
+    protected File resolve(URI uri) {
+      return new Source();
+    }
+
+    @Override
+    public String getScheme() {
+      return "flaky";
+    }
+
+    class Source extends File {
+
+      @Override
+      protected InputStream read() throws IOException {
+        return read(0);
+      }
+
+      @Override
+      protected InputStream read(long offset) throws IOException {
+        offsets.add(offset);
+        boolean drop = failures.getAndDecrement() > 0;
+        return new FilterInputStream(new ByteArrayInputStream(content, (int) offset, SIZE - (int) offset)) {
+          private long sent = 0;
+
+          @Override
+          public int read(byte[] b, int off, int len) throws IOException {
+            if (drop && sent >= BREAK) {
+              if (changeOnFailure) {
+                modified.incrementAndGet();
+              }
+              throw new IOException("Dropped");
+            }
+            int n = super.read(b, off, (int) Math.min(len, drop ? BREAK - sent : len));
+            if (n > 0) {
+              sent += n;
+              read.addAndGet(n);
+            }
+            return n;
+          }
+        };
+      }
+
+      @Override
+      protected OutputStream write() throws IOException {
+        throw new IOException("Read only.");
+      }
+
+      @Override
+      public long getLastModified() {
+        return modified.get();
+      }
+
+      @Override
+      public void setLastModified(long time) {
+        // Fixed.
+      }
+
+      @Override
+      public long length() {
+        return SIZE;
+      }
+
+      @Override
+      public boolean isDirectory() {
+        return false;
+      }
+
+      @Override
+      public boolean isFile() {
+        return true;
+      }
+
+      @Override
+      public boolean isVisible() {
+        return true;
+      }
+
+      @Override
+      public boolean exists() {
+        return true;
+      }
+
+      @Override
+      public File parent() {
+        return null;
+      }
+
+      @Override
+      public String getName() {
+        return "source.bin";
+      }
+
+      @Override
+      public String getBaseName() {
+        return "source";
+      }
+
+      @Override
+      public String getExtension() {
+        return "bin";
+      }
+
+      @Override
+      public String getPath() {
+        return "/source.bin";
+      }
+
+      @Override
+      public URI getURI() {
+        return URI.create("flaky://host/source.bin");
+      }
+
+      @Override
+      public boolean delete() {
+        return false;
+      }
+
+      @Override
+      public boolean mkdir() {
+        return false;
+      }
+
+      @Override
+      public boolean mkdirs() {
+        return false;
+      }
+
+      @Override
+      public boolean rename(File file) {
+        return false;
+      }
+
+      @Override
+      public File create(String path) {
+        return null;
+      }
+
+      @Override
+      public void dispose() {
+        // Nothing held.
+      }
+
+    }
+
+  }
+
+}
@@ -0,0 +1,269 @@
+package org.keeber.simpleio;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URI;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Segmented downloads - the same bytes as the source, segments admitted at the source host, and the
+ * streams of the other segments closed when one fails.
+ */
+public class SegmentedCopyTest {
+  private static final int SIZE = 33 * 1024 * 1024;
+
+  private static byte[] content;
+  private Path target;
+  private Remote plugin;
+
+  @Before
+  public void setUp() throws IOException {
+    if (content == null) {
+      content = new byte[SIZE];
+      new Random(10).nextBytes(content);
+    }
+    target = Files.createTempFile("segmented", ".bin");
+    plugin = new Remote();
+    File.addPlugin(plugin);
+  }
+
+  @After
+  public void tearDown() throws IOException {
+    Files.deleteIfExists(target);
+  }
+
+  private File target() throws IOException {
+    return File.resolve(target.toString());
+  }
+
+  @Test
+  public void testSegmentsMatchSource() throws Exception {
+    plugin.new Source().operations.copyTo(target(), new File.CopyOptions().setSegments(4));
+    assertEquals(4, plugin.opened.get());
+    assertArrayEquals(content, Files.readAllBytes(target));
+  }
+
+  @Test
+  public void testSegmentsAdmittedAtHost() throws Exception {
+    plugin.setMaxConcurrency(1);
+    plugin.delay = 5;
+    plugin.new Source().operations.copyTo(target(), new File.CopyOptions().setSegments(4));
+    // The copy's own segment and one admitted at the host.
+    assertTrue("most " + plugin.most.get(), plugin.most.get() <= 2);
+    assertArrayEquals(content, Files.readAllBytes(target));
+  }
+
+  @Test
+  public void testAsyncCopyHoldingLastPlace() throws Exception {
+    plugin.setMaxConcurrency(1);
+    // The copy holds the only place - its segments must not wait for it.
+    plugin.new Source().async().copyToAsync(target(), new File.CopyOptions().setSegments(4)).get(30, TimeUnit.SECONDS);
+    assertArrayEquals(content, Files.readAllBytes(target));
+  }
+
+  @Test
+  public void testFailedSegmentStopsOthers() throws Exception {
+    plugin.delay = 5;
+    plugin.failAt = SIZE / 2 + 1024 * 1024;
+    try {
+      plugin.new Source().operations.copyTo(target(), new File.CopyOptions().setSegments(4));
+      fail("The failed segment was not reported.");
+    } catch (IOException e) {
+      assertEquals("Broken", e.getMessage());
+    }
+    assertEquals(plugin.opened.get(), plugin.closed.get());
+    // The others stopped rather than running to the end of their ranges.
+    assertTrue("read " + plugin.read.get(), plugin.read.get() < SIZE / 2);
+  }
+
+  /**
+   * A scheme serving the content from memory - counting the streams open at once and failing when a
+   * read reaches failAt.
+   */
+  static class Remote extends File.Plugin {
+    final AtomicInteger opened = new AtomicInteger();
+    final AtomicInteger closed = new AtomicInteger();
+    final AtomicInteger open = new AtomicInteger();
+    final AtomicInteger most = new AtomicInteger();
+    final AtomicInteger read = new AtomicInteger();
+    volatile long delay = 0;
+    volatile long failAt = -1;
+
+    @Override
+    protected File resolve(URI uri) {
+      return new Source();
+    }
+
+    @Override
+    public String getScheme() {
+      return "segmented";
+    }
+
+    class Source extends File {
+
+      @Override
+      protected InputStream read() throws IOException {
+        return read(0);
+      }
+
+      @Override
+      protected InputStream read(long offset) throws IOException {
+        opened.incrementAndGet();
+        most.accumulateAndGet(open.incrementAndGet(), Math::max);
+        return new FilterInputStream(new ByteArrayInputStream(content, (int) offset, SIZE - (int) offset)) {
+          private long position = offset;
+          private boolean done = false;
+
+          @Override
+          public int read(byte[] b, int off, int len) throws IOException {
+            try {
+              Thread.sleep(delay);
+            } catch (InterruptedException e) {
+              throw new IOException(e);
+            }
+            int n = super.read(b, off, Math.min(len, 64 * 1024));
+            if (failAt >= 0 && position <= failAt && position + n > failAt) {
+              throw new IOException("Broken");
+            }
+            position += n;
+            read.addAndGet(n);
+            return n;
+          }
+
+          @Override
+          public void close() throws IOException {
+            if (!done) {
+              done = true;
+              open.decrementAndGet();
+              closed.incrementAndGet();
+            }
+          }
+        };
+      }
+
+      @Override
+      protected boolean supportsSegments() {
+        return true;
+      }
+
+      @Override
+      protected OutputStream write() throws IOException {
+        throw new IOException("Read only.");
+      }
+
+      @Override
+      public long getLastModified() {
+        return 0;
+      }
+
+      @Override
+      public void setLastModified(long time) {
+        // Fixed.
+      }
+
+      @Override
+      public long length() {
+        return SIZE;
+      }
+
+      @Override
+      public boolean isDirectory() {
+        return false;
+      }
+
+      @Override
+      public boolean isFile() {
+        return true;
+      }
+
+      @Override
+      public boolean isVisible() {
+        return true;
+      }
+
+      @Override
+      public boolean exists() {
+        return true;
+      }
+
+      @Override
+      public File parent() {
+        return null;
+      }
+
+      @Override
+      public String getName() {
+        return "source.bin";
+      }
+
+      @Override
+      public String getBaseName() {
+        return "source";
+      }
+
+      @Override
+      public String getExtension() {
+        return "bin";
+      }
+
+      @Override
+      public String getPath() {
+        return "/source.bin";
+      }
+
+      @Override
+      public URI getURI() {
+        return URI.create("segmented://host/source.bin");
+      }
+
+      @Override
+      public boolean delete() {
+        return false;
+      }
+
+      @Override
+      public boolean mkdir() {
+        return false;
+      }
+
+      @Override
+      public boolean mkdirs() {
+        return false;
+      }
+
+      @Override
+      public boolean rename(File file) {
+        return false;
+      }
+
+      @Override
+      public File create(String path) {
+        return null;
+      }
+
+      @Override
+      public void dispose() {
+        // Nothing held.
+      }
+
+    }
+
+  }
+
+}
@@ -0,0 +1,82 @@
+package org.keeber.simpleio;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * The first files of a listing kept in a bounded heap - always the head of the fully sorted listing.
+ */
+public class TopKTest {
+  private static final int FILES = 400;
+
+  private Path folder;
+  private File root;
+
+  @Before
+  public void setUp() throws IOException {
+    folder = Files.createTempDirectory("topk");
+    Files.createDirectories(folder.resolve("sub"));
+    Random random = new Random(7);
+    for (int i = 0; i < FILES; i++) {
+      Path file = folder.resolve((i % 4 == 0 ? "sub/" : "") + "file" + random.nextInt(100000) + "-" + i + ".txt");
+      Files.write(file, new byte[i % 10]);
+      file.toFile().setLastModified(1000000000000L + random.nextInt(1000000) * 1000L);
+    }
+    root = File.resolve(folder.toString() + "/");
+  }
+
+  @After
+  public void tearDown() throws IOException {
+    try (Stream<Path> paths = Files.walk(folder)) {
+      paths.sorted(Comparator.reverseOrder()).forEach((path) -> path.toFile().delete());
+    }
+  }
+
+  private static List<String> paths(List<File> files) {
+    return files.stream().map(File::getPath).collect(Collectors.toList());
+  }
+
+  private void assertHead(Comparator<File> sorter, int limit) throws IOException {
+    List<File> all = root.list(File.filters.VISIBLE_FILES, File.filters.ALL_DIRECTORIES, sorter);
+    List<File> top = root.list(File.filters.VISIBLE_FILES, File.filters.ALL_DIRECTORIES, sorter, limit);
+    assertEquals(paths(all.subList(0, Math.min(limit, all.size()))), paths(top));
+  }
+
+  @Test
+  public void testStandardSorters() throws Exception {
+    assertHead(File.comparators.DEFAULT, 25);
+    assertHead(File.comparators.sort(File.comparators.By.MODIFIED, File.comparators.Order.DECENDING), 25);
+    assertHead(File.comparators.sort(File.comparators.By.MODIFIED, File.comparators.Order.ASCENDING), 1);
+  }
+
+  @Test
+  public void testCustomSorter() throws Exception {
+    assertHead(Comparator.comparing(File::getName).reversed(), 40);
+  }
+
+  @Test
+  public void testNaturalOrder() throws Exception {
+    assertHead(null, 10);
+  }
+
+  @Test
+  public void testLimits() throws Exception {
+    assertTrue(root.list(File.filters.VISIBLE_FILES, File.filters.ALL_DIRECTORIES, File.comparators.DEFAULT, 0).isEmpty());
+    assertEquals(FILES, root.list(File.filters.VISIBLE_FILES, File.filters.ALL_DIRECTORIES, File.comparators.DEFAULT, FILES * 2).size());
+    assertHead(File.comparators.DEFAULT, FILES);
+  }
+
+}
@@ -0,0 +1,119 @@
+package org.keeber.simpleio;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.stream.Stream;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * The hotfolder trackers - paths whose hashes collide kept apart (and kept at the same keys across a
+ * restart), and the table growing, shrinking and sweeping without losing files.
+ */
+public class TrackersTest {
+  private Path directory;
+
+  @Before
+  public void setUp() throws IOException {
+    directory = Files.createTempDirectory("trackers");
+  }
+
+  @After
+  public void tearDown() throws IOException {
+    try (Stream<Path> paths = Files.walk(directory)) {
+      paths.sorted(Comparator.reverseOrder()).forEach((path) -> path.toFile().delete());
+    }
+  }
+
+  /**
+   * Every path hashes the same.
+   */
+  private static Trackers colliding() {
+    return new Trackers((path) -> 42);
+  }
+
+  @Test
+  public void testCollidingPathsKeptApart() {
+    Trackers trackers = colliding();
+    assertEquals(0, trackers.check("/in/a.txt", 10, 100, null));
+    assertEquals(0, trackers.check("/in/b.txt", 20, 200, null));
+    assertEquals(2, trackers.size());
+    assertNotEquals(trackers.key("/in/a.txt"), trackers.key("/in/b.txt"));
+    trackers.launch(trackers.key("/in/a.txt"));
+    assertEquals(-1, trackers.check("/in/a.txt", 10, 100, null));
+    // The other is still settling.
+    assertEquals(1, trackers.check("/in/b.txt", 20, 200, null));
+  }
+
+  @Test
+  public void testKeyKeptWhenFirstRemoved() {
+    Trackers trackers = colliding();
+    trackers.check("/in/a.txt", 10, 100, null);
+    trackers.check("/in/b.txt", 20, 200, null);
+    long b = trackers.key("/in/b.txt");
+    trackers.launch(b);
+    trackers.remove(trackers.key("/in/a.txt"));
+    assertEquals(b, trackers.key("/in/b.txt"));
+    assertEquals(-1, trackers.check("/in/b.txt", 20, 200, null));
+    // A new path takes the freed key.
+    assertEquals(0, trackers.check("/in/c.txt", 30, 300, null));
+    assertEquals(42, trackers.key("/in/c.txt"));
+  }
+
+  @Test
+  public void testCollisionsSurviveRestart() throws Exception {
+    Journal journal = new Journal(directory);
+    Trackers trackers = colliding();
+    journal.replay(trackers);
+    trackers.setJournal(journal);
+    trackers.check("/in/a.txt", 10, 100, null);
+    trackers.check("/in/b.txt", 20, 200, null);
+    trackers.launch(trackers.key("/in/b.txt"));
+    journal.close();
+
+    journal = new Journal(directory);
+    trackers = colliding();
+    journal.replay(trackers);
+    assertEquals(1, trackers.check("/in/a.txt", 10, 100, null));
+    assertEquals(-1, trackers.check("/in/b.txt", 20, 200, null));
+    journal.close();
+  }
+
+  @Test
+  public void testGrowAndSweep() {
+    Trackers trackers = new Trackers();
+    trackers.scan();
+    for (int i = 0; i < 10000; i++) {
+      trackers.check("/in/file" + i, i, i, "file" + i);
+    }
+    assertEquals(10000, trackers.size());
+    assertEquals(10000, trackers.pending().size());
+    // Hundreds of scans - the generation wraps but what is listed is never swept.
+    for (int scan = 0; scan < 300; scan++) {
+      trackers.scan();
+      for (int i = 0; i < 10000; i += 2) {
+        trackers.check("/in/file" + i, i, i, null);
+      }
+      trackers.sweep();
+      assertEquals(5000, trackers.size());
+    }
+    for (int i = 0; i < 10000; i++) {
+      assertEquals(i % 2 == 0, trackers.contains(trackers.key("/in/file" + i)));
+    }
+    assertEquals(5000, trackers.pending().size());
+    trackers.launch(trackers.key("/in/file0"));
+    assertEquals(4999, trackers.pending().size());
+    assertFalse(trackers.pending().stream().anyMatch((pending) -> pending.path.equals("file0")));
+    assertTrue(trackers.pending().stream().anyMatch((pending) -> pending.path.equals("file2")));
+  }
+
+}
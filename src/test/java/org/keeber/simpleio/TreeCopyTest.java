@@ -0,0 +1,269 @@
+package org.keeber.simpleio;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URI;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tree copies resolve each target directory once and the files against it - and skip unchanged
+ * files by length alone on a scheme that can not keep modification times.
+ */
+public class TreeCopyTest {
+  private static final String[] DIRECTORIES = {"", "a/", "a/b/", "c/"};
+  private static final int FILES = 5;
+
+  private Path source;
+  private Path target;
+
+  @Before
+  public void setUp() throws IOException {
+    source = Files.createTempDirectory("tree-source");
+    target = Files.createTempDirectory("tree-target");
+    for (String directory : DIRECTORIES) {
+      Files.createDirectories(source.resolve(directory));
+      for (int i = 0; i < FILES; i++) {
+        Files.write(source.resolve(directory + "file" + i + ".txt"), ("content " + directory + i).getBytes());
+      }
+    }
+  }
+
+  @After
+  public void tearDown() throws IOException {
+    for (Path root : new Path[] {source, target}) {
+      try (Stream<Path> paths = Files.walk(root)) {
+        paths.sorted(Comparator.reverseOrder()).forEach((path) -> path.toFile().delete());
+      }
+    }
+  }
+
+  private CopyReport copy(Scheme scheme) throws IOException {
+    File.addPlugin(scheme);
+    File from = File.resolve(source.toString() + "/");
+    return from.operations.copyTreeTo(scheme.new Target(target.toFile()), File.filters.VISIBLE_FILES, File.filters.ALL_DIRECTORIES, new File.CopyOptions().setSkipUnchanged(true));
+  }
+
+  private void assertCopied() throws IOException {
+    for (String directory : DIRECTORIES) {
+      for (int i = 0; i < FILES; i++) {
+        String path = directory + "file" + i + ".txt";
+        assertArrayEquals(path, Files.readAllBytes(source.resolve(path)), Files.readAllBytes(target.resolve(path)));
+      }
+    }
+  }
+
+  @Test
+  public void testDirectoriesResolvedOnce() throws Exception {
+    Scheme scheme = new Scheme("treeonce", true);
+    CopyReport report = copy(scheme);
+    assertEquals(DIRECTORIES.length * FILES, report.getFiles());
+    assertCopied();
+    // A lookup for a/ and c/ (a/b/ is inside a directory just created) - none for the files.
+    assertEquals(2, scheme.lookups.get());
+    // Only the target itself already existed.
+    assertEquals(1, scheme.listings.get());
+
+    scheme.lookups.set(0);
+    scheme.listings.set(0);
+    report = copy(scheme);
+    assertEquals(DIRECTORIES.length * FILES, report.getSkipped());
+    // The directories exist now - each is listed once instead.
+    assertEquals(DIRECTORIES.length - 1, scheme.lookups.get());
+    assertEquals(DIRECTORIES.length, scheme.listings.get());
+  }
+
+  @Test
+  public void testLengthsOnlyWithoutTimes() throws Exception {
+    Scheme scheme = new Scheme("treetimes", false);
+    assertEquals(DIRECTORIES.length * FILES, copy(scheme).getFiles());
+    CopyReport report = copy(scheme);
+    assertEquals(0, report.getFiles());
+    assertEquals(DIRECTORIES.length * FILES, report.getSkipped());
+    // A change of length is still copied.
+    Files.write(source.resolve("a/file0.txt"), "longer content".getBytes());
+    assertEquals(1, copy(scheme).getFiles());
+    assertCopied();
+  }
+
+  /**
+   * Local files counting the lookups (create) and listings of the target - with or without
+   * modification times that can be set.
+   */
+  static class Scheme extends File.Plugin {
+    private final String scheme;
+    private final boolean times;
+    final AtomicInteger lookups = new AtomicInteger();
+    final AtomicInteger listings = new AtomicInteger();
+
+    Scheme(String scheme, boolean times) {
+      this.scheme = scheme;
+      this.times = times;
+    }
+
+    @Override
+    protected File resolve(URI uri) {
+      return new Target(new java.io.File(uri.getPath()));
+    }
+
+    @Override
+    public String getScheme() {
+      return scheme;
+    }
+
+    class Target extends File {
+      private final java.io.File ref;
+
+      Target(java.io.File ref) {
+        this.ref = ref;
+      }
+
+      @Override
+      public File create(String path) {
+        lookups.incrementAndGet();
+        return new Target(new java.io.File(ref, path));
+      }
+
+      @Override
+      protected File createNew(String path) {
+        return new Target(new java.io.File(ref, path));
+      }
+
+      @Override
+      protected List<File> children() {
+        listings.incrementAndGet();
+        List<File> children = new ArrayList<>();
+        java.io.File[] files = ref.listFiles();
+        for (java.io.File f : files == null ? new java.io.File[0] : files) {
+          children.add(new Target(f));
+        }
+        return children;
+      }
+
+      @Override
+      protected boolean supportsLastModified() {
+        return times;
+      }
+
+      @Override
+      public void setLastModified(long time) {
+        if (times) {
+          ref.setLastModified(time);
+        }
+      }
+
+      @Override
+      protected InputStream read() throws IOException {
+        return new FileInputStream(ref);
+      }
+
+      @Override
+      protected OutputStream write() throws IOException {
+        return new FileOutputStream(ref);
+      }
+
+      @Override
+      public long getLastModified() {
+        return ref.lastModified();
+      }
+
+      @Override
+      public long length() {
+        return ref.length();
+      }
+
+      @Override
+      public boolean isDirectory() {
+        return ref.isDirectory();
+      }
+
+      @Override
+      public boolean isFile() {
+        return ref.isFile();
+      }
+
+      @Override
+      public boolean isVisible() {
+        return !ref.isHidden();
+      }
+
+      @Override
+      public boolean exists() {
+        return ref.exists();
+      }
+
+      @Override
+      public File parent() {
+        return new Target(ref.getParentFile());
+      }
+
+      @Override
+      public String getName() {
+        return ref.getName();
+      }
+
+      @Override
+      public String getBaseName() {
+        return ref.getName().replaceFirst("\\.[^.]*$", "");
+      }
+
+      @Override
+      public String getExtension() {
+        return ref.getName().contains(".") ? ref.getName().substring(ref.getName().lastIndexOf('.') + 1) : "";
+      }
+
+      @Override
+      public String getPath() {
+        return ref.getPath() + (ref.isDirectory() ? "/" : "");
+      }
+
+      @Override
+      public URI getURI() {
+        return URI.create(scheme + "://" + ref.toURI().getPath());
+      }
+
+      @Override
+      public boolean delete() {
+        return ref.delete();
+      }
+
+      @Override
+      public boolean mkdir() {
+        return ref.mkdir();
+      }
+
+      @Override
+      public boolean mkdirs() {
+        return ref.mkdirs();
+      }
+
+      @Override
+      public boolean rename(File file) {
+        return ref.renameTo(((Target) file).ref);
+      }
+
+      @Override
+      public void dispose() {
+        // Nothing held.
+      }
+
+    }
+
+  }
+
+}
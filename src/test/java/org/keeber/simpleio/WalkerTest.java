@@ -0,0 +1,353 @@
+package org.keeber.simpleio;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URI;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * The recursive list behind {@link File#list(File.GrabFilter, File.MoveFilter, Comparator)} - the
+ * parallel walk, its listing limit and plugins that only have a list of their own.
+ */
+public class WalkerTest {
+  private Path folder;
+
+  @Before
+  public void setUp() throws IOException {
+    folder = Files.createTempDirectory("walker");
+    for (int i = 0; i < 6; i++) {
+      for (int j = 0; j < 4; j++) {
+        Path dir = Files.createDirectories(folder.resolve("d" + i + "/e" + j));
+        Files.write(dir.resolve("file.txt"), "content".getBytes());
+      }
+      Files.write(folder.resolve("d" + i + "/top.txt"), "content".getBytes());
+    }
+  }
+
+  @After
+  public void tearDown() throws IOException {
+    try (Stream<Path> paths = Files.walk(folder)) {
+      paths.sorted(Comparator.reverseOrder()).forEach((path) -> path.toFile().delete());
+    }
+  }
+
+  private static List<String> paths(List<File> files) {
+    return files.stream().map(File::getPath).map((p) -> p.substring(p.indexOf("/d"))).collect(Collectors.toList());
+  }
+
+  private List<String> expected() throws IOException {
+    try (Stream<Path> paths = Files.walk(folder)) {
+      return paths.filter(Files::isRegularFile).map((p) -> "/" + folder.relativize(p).toString()).sorted().collect(Collectors.toList());
+    }
+  }
+
+  @Test
+  public void testParallelMatchesSequential() throws Exception {
+    Counting plugin = new Counting("walkerpar");
+    File.addPlugin(plugin);
+    File root = plugin.file(folder.toFile());
+    List<File> sequential = root.list(File.filters.VISIBLE_FILES, File.filters.ALL_DIRECTORIES, null);
+    plugin.setParallelism(4);
+    List<File> parallel = root.list(File.filters.VISIBLE_FILES, File.filters.ALL_DIRECTORIES, null);
+    assertEquals(paths(sequential), paths(parallel));
+    assertEquals(expected(), paths(root.list(File.filters.VISIBLE_FILES, File.filters.ALL_DIRECTORIES, Comparator.comparing(File::getPath))));
+  }
+
+  @Test
+  public void testListingsLimitedAcrossWalks() throws Exception {
+    Counting plugin = new Counting("walkerlimit");
+    plugin.delay = 20;
+    plugin.setParallelism(2);
+    File.addPlugin(plugin);
+    File root = plugin.file(folder.toFile());
+    List<CompletableFuture<List<File>>> walks = new ArrayList<>();
+    for (int i = 0; i < 3; i++) {
+      walks.add(CompletableFuture.supplyAsync(() -> {
+        try {
+          return root.list(File.filters.VISIBLE_FILES, File.filters.ALL_DIRECTORIES, null);
+        } catch (IOException e) {
+          throw new RuntimeException(e);
+        }
+      }));
+    }
+    for (CompletableFuture<List<File>> walk : walks) {
+      assertEquals(30, walk.get().size());
+    }
+    assertTrue("max " + plugin.max.get(), plugin.max.get() <= 2);
+  }
+
+  @Test
+  public void testParallelismChangedDuringWalk() throws Exception {
+    Counting plugin = new Counting("walkerchange");
+    plugin.delay = 20;
+    plugin.setParallelism(2);
+    File.addPlugin(plugin);
+    File root = plugin.file(folder.toFile());
+    CompletableFuture<List<File>> walk = CompletableFuture.supplyAsync(() -> {
+      try {
+        return root.list(File.filters.VISIBLE_FILES, File.filters.ALL_DIRECTORIES, null);
+      } catch (IOException e) {
+        throw new RuntimeException(e);
+      }
+    });
+    Thread.sleep(30);
+    plugin.setParallelism(3);
+    assertEquals(30, walk.get().size());
+    assertEquals(30, root.list(File.filters.VISIBLE_FILES, File.filters.ALL_DIRECTORIES, null).size());
+  }
+
+  @Test
+  public void testLegacyPluginIsWalked() throws Exception {
+    File root = new Legacy(folder.toFile());
+    assertEquals(expected(), paths(root.list(File.filters.VISIBLE_FILES, File.filters.ALL_DIRECTORIES, Comparator.comparing(File::getPath))));
+    // Built on children() - which falls back on the legacy list.
+    try (Stream<File> files = root.walk(File.filters.VISIBLE_FILES, File.filters.ALL_DIRECTORIES)) {
+      assertEquals(30, files.count());
+    }
+    assertEquals(3, root.list(File.filters.VISIBLE_FILES, File.filters.ALL_DIRECTORIES, Comparator.comparing(File::getPath), 3).size());
+  }
+
+  /**
+   * A local file of a scheme of its own (so the scheme can have its own plugin).
+   */
+  abstract static class Local extends File {
+    final java.io.File ref;
+
+    Local(java.io.File ref) {
+      this.ref = ref;
+    }
+
+    abstract Local child(java.io.File ref);
+
+    @Override
+    protected InputStream read() throws IOException {
+      return new FileInputStream(ref);
+    }
+
+    @Override
+    protected OutputStream write() throws IOException {
+      return new FileOutputStream(ref);
+    }
+
+    @Override
+    public long getLastModified() {
+      return ref.lastModified();
+    }
+
+    @Override
+    public void setLastModified(long time) {
+      ref.setLastModified(time);
+    }
+
+    @Override
+    public long length() {
+      return ref.length();
+    }
+
+    @Override
+    public boolean isDirectory() {
+      return ref.isDirectory();
+    }
+
+    @Override
+    public boolean isFile() {
+      return ref.isFile();
+    }
+
+    @Override
+    public boolean isVisible() {
+      return !ref.isHidden();
+    }
+
+    @Override
+    public boolean exists() {
+      return ref.exists();
+    }
+
+    @Override
+    public File parent() {
+      return child(ref.getParentFile());
+    }
+
+    @Override
+    public String getName() {
+      return ref.getName();
+    }
+
+    @Override
+    public String getBaseName() {
+      return ref.getName().replaceFirst("\\.[^.]*$", "");
+    }
+
+    @Override
+    public String getExtension() {
+      return ref.getName().contains(".") ? ref.getName().substring(ref.getName().lastIndexOf('.') + 1) : "";
+    }
+
+    @Override
+    public String getPath() {
+      return ref.getPath() + (ref.isDirectory() ? "/" : "");
+    }
+
+    @Override
+    public boolean delete() {
+      return ref.delete();
+    }
+
+    @Override
+    public boolean mkdir() {
+      return ref.mkdir();
+    }
+
+    @Override
+    public boolean mkdirs() {
+      return ref.mkdirs();
+    }
+
+    @Override
+    public boolean rename(File file) {
+      return ref.renameTo(((Local) file).ref);
+    }
+
+    @Override
+    public File create(String path) {
+      return child(new java.io.File(ref, path));
+    }
+
+    @Override
+    public void dispose() {
+      // Nothing held.
+    }
+
+  }
+
+  /**
+   * A file written before children() - it only lists with its own recursion.
+   */
+  static class Legacy extends Local {
+
+    Legacy(java.io.File ref) {
+      super(ref);
+    }
+
+    @Override
+    Local child(java.io.File ref) {
+      return new Legacy(ref);
+    }
+
+    @Override
+    public URI getURI() {
+      return URI.create("legacy://" + ref.toURI().getPath());
+    }
+
+    @Override
+    public List<File> list(GrabFilter grab, MoveFilter move, Comparator<File> sorter) throws IOException {
+      List<File> list = new ArrayList<>();
+      list(this, grab, move, 0, list);
+      if (sorter != null) {
+        list.sort(sorter);
+      }
+      return list;
+    }
+
+    private static void list(File dir, GrabFilter grab, MoveFilter move, int depth, List<File> list) throws IOException {
+      java.io.File[] files = ((Legacy) dir).ref.listFiles();
+      for (java.io.File f : files == null ? new java.io.File[0] : files) {
+        Legacy child = new Legacy(f);
+        if (grab.shouldGrab(child)) {
+          list.add(child);
+        }
+        if (f.isDirectory() && move.shouldMove(child, depth)) {
+          list(child, grab, move, depth + 1, list);
+        }
+      }
+    }
+
+  }
+
+  /**
+   * A plugin counting the listings running at once.
+   */
+  static class Counting extends File.Plugin {
+    private final String scheme;
+    final AtomicInteger running = new AtomicInteger();
+    final AtomicInteger max = new AtomicInteger();
+    volatile long delay = 0;
+
+    Counting(String scheme) {
+      this.scheme = scheme;
+    }
+
+    File file(java.io.File ref) {
+      return new CountingFile(ref);
+    }
+
+    @Override
+    protected File resolve(URI uri) {
+      return new CountingFile(new java.io.File(uri.getPath()));
+    }
+
+    @Override
+    public String getScheme() {
+      return scheme;
+    }
+
+    class CountingFile extends Local {
+
+      CountingFile(java.io.File ref) {
+        super(ref);
+      }
+
+      @Override
+      Local child(java.io.File ref) {
+        return new CountingFile(ref);
+      }
+
+      @Override
+      public URI getURI() {
+        return URI.create(scheme + "://" + ref.toURI().getPath());
+      }
+
+      @Override
+      protected List<File> children() throws IOException {
+        max.accumulateAndGet(running.incrementAndGet(), Math::max);
+        try {
+          if (delay > 0) {
+            Thread.sleep(delay);
+          }
+          List<File> children = new ArrayList<>();
+          java.io.File[] files = ref.listFiles();
+          for (java.io.File f : files == null ? new java.io.File[0] : files) {
+            children.add(new CountingFile(f));
+          }
+          return children;
+        } catch (InterruptedException e) {
+          throw new IOException(e);
+        } finally {
+          running.decrementAndGet();
+        }
+      }
+
+    }
+
+  }
+
+}